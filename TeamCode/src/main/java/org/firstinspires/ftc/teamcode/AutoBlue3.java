@@ -6,6 +6,7 @@ import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
 import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
 
 import org.steelhead.ftc.AutoRobotFunctions;
+import org.steelhead.ftc.ControlClock;
 import org.steelhead.ftc.HardwareSteelheadMainBot;
 
 /**
@@ -31,6 +32,8 @@ public class AutoBlue3 extends LinearOpMode {
     private int blackColor = 5;
 
     private static final String TAG = "Third Blue";
+    //Write a flight recording to the phone, only for tuning, not in a match
+    private static final boolean RECORD_FLIGHT = false;
 
     @Override
     public void runOpMode() throws InterruptedException {
@@ -40,11 +43,19 @@ public class AutoBlue3 extends LinearOpMode {
         autoRobotFunctions = new AutoRobotFunctions(this, robot, TAG);
 
         autoRobotFunctions.setGyroDrivePID(0.018, 0.0001, 0.008);
+        //Measured counts per second at full power and seconds to get up to speed
+        autoRobotFunctions.setDriveProfile(2800, 0.5);
         // autoRobotFunctions.setGyroRotatePID(0.034, 0.0005, 0.0008);, Old values
         // autoRobotFunctions.setGyroRotatePID(0.035, 0.0001, 0.000093);
         autoRobotFunctions.setGyroRotatePID(0.032, 0.0009, 0.0045);
+        //The robot turns about 120 degrees/s at the 0.5 rotate output and needs 0.5 s to get there,
+        //the profile stays under that so the PID has some output left to correct with
+        autoRobotFunctions.setGyroRotateProfile(90, 180, 0.004, 0.0003);
         //autoRobotFunctions.setColorPID(0.018, 0.05, 0.00203);
         autoRobotFunctions.setColorPID(0.025, 0.05, 0.002);
+        if (RECORD_FLIGHT) {
+            autoRobotFunctions.startFlightRecorder("flight_blue3");
+        }
 
         appContext = hardwareMap.appContext;
         whiteThreshold = robot.sharedPref.getInt(appContext.getString(R.string.White_Threshold), 45);
@@ -124,11 +135,11 @@ public class AutoBlue3 extends LinearOpMode {
                     AutoRobotFunctions.StopConditions.ENCODER, 2500, -1);
 
             robot.shooterServoDown(false);
-            Thread.sleep(500);
+            ControlClock.sleep(500);
             robot.shooterServoDown(true);
-            Thread.sleep(800);
+            ControlClock.sleep(800);
             robot.shooterServoDown(false);
-            Thread.sleep(500);
+            ControlClock.sleep(500);
             robot.shooterServoDown(true);
             robot.shooterMotorOn(false);
             robot.sweeperMotor.setPower(0);
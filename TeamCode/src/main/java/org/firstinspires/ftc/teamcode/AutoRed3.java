@@ -31,6 +31,8 @@ public class AutoRed3 extends LinearOpMode {
     private int blackColor = 5;
 
     private static final String TAG = "Third Red";
+    //Write a flight recording to the phone, only for tuning, not in a match
+    private static final boolean RECORD_FLIGHT = false;
 
     @Override
     public void runOpMode() throws InterruptedException {
@@ -40,10 +42,18 @@ public class AutoRed3 extends LinearOpMode {
         autoRobotFunctions = new AutoRobotFunctions(this, robot, TAG);
 
         autoRobotFunctions.setGyroDrivePID(0.018, 0.0001, 0.008);
+        //Measured counts per second at full power and seconds to get up to speed
+        autoRobotFunctions.setDriveProfile(2800, 0.5);
         // autoRobotFunctions.setGyroRotatePID(0.034, 0.0005, 0.0008);, Old values
         // autoRobotFunctions.setGyroRotatePID(0.035, 0.0001, 0.000093);
         autoRobotFunctions.setGyroRotatePID(0.032, 0.0009, 0.0045);
+        //The robot turns about 120 degrees/s at the 0.5 rotate output and needs 0.5 s to get there,
+        //the profile stays under that so the PID has some output left to correct with
+        autoRobotFunctions.setGyroRotateProfile(90, 180, 0.004, 0.0003);
         autoRobotFunctions.setColorPID(0.025, 0.05, 0.002);
+        if (RECORD_FLIGHT) {
+            autoRobotFunctions.startFlightRecorder("flight_red3");
+        }
 
         appContext = hardwareMap.appContext;
         whiteThreshold = robot.sharedPref.getInt(appContext.getString(R.string.White_Threshold), 45);
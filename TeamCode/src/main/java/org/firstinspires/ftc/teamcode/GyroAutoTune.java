@@ -0,0 +1,152 @@
+package org.firstinspires.ftc.teamcode;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import android.util.Log;
+
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import org.steelhead.ftc.ControlClock;
+import org.steelhead.ftc.GainSchedule;
+import org.steelhead.ftc.GyroPIDController;
+import org.steelhead.ftc.HardwareSteelheadMainBot;
+import org.steelhead.ftc.PidSnapshot;
+import org.steelhead.ftc.RelayAutoTune;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Relay auto tune for the gyro rotate controller. The robot rocks back and forth around its
+ * starting heading with the rotate output switched between +RELAY_OUTPUT and -RELAY_OUTPUT, the
+ * heading error is recorded, and RelayAutoTune works out the ultimate gain and period and
+ * suggests PID gains. Press A to save them or B to throw them away. They are saved under their
+ * own key, the autonomous op modes keep their hand tuned rotate gains. The trace is saved to
+ * Documents/gyro_autotune.csv so it can be analysed again off of the robot.
+ */
+@TeleOp(name = "Cal: Gyro Auto Tune", group = "cal")
+//@Disabled
+public class GyroAutoTune extends LinearOpMode {
+
+    private static final double RELAY_OUTPUT = 0.35;
+    private static final double HYSTERESIS = 1;     //Degrees
+    private static final double MAX_SECONDS = 15;
+    private static final int MAX_SAMPLES = 2000;
+
+    private static final String TAG = "GYRO AUTOTUNE";
+
+    @Override
+    public void runOpMode() throws InterruptedException {
+        HardwareSteelheadMainBot robot = new HardwareSteelheadMainBot();
+        robot.init(hardwareMap);
+        Context appContext = hardwareMap.appContext;
+
+        robot.gyro.calibrate();
+        telemetry.addData(">", "Gyro Calibrating. Do Not move!");
+        telemetry.update();
+        while (!isStopRequested() && robot.gyro.isCalibrating()) {
+            idle();
+        }
+        telemetry.addData(">", "Put the robot on the floor and press start");
+        telemetry.update();
+
+        waitForStart();
+        robot.gyro.resetZAxisIntegrator();
+
+        double[] times = new double[MAX_SAMPLES];
+        double[] errors = new double[MAX_SAMPLES];
+        int count = 0;
+
+        GyroPIDController pidController = new GyroPIDController(robot.gyro, 0, 0, TAG);
+        pidController.setRelay(RELAY_OUTPUT, HYSTERESIS);
+        if (robot.gyroMonitor != null) {
+            pidController.enable(robot.gyroMonitor);
+        } else {
+            pidController.enable();
+        }
+
+        //Record one point per controller iteration
+        PidSnapshot pidState = new PidSnapshot();
+        long startTime = ControlClock.nanoTime();
+        try {
+            pidController.waitForOutput(100);
+            while (opModeIsActive() && ControlClock.millisecondsSince(startTime) < MAX_SECONDS * 1000 && count < MAX_SAMPLES) {
+                if (pidController.getSnapshot(pidState)) {
+                    robot.leftMotor.setPower(pidState.output);
+                    robot.rightMotor.setPower(-pidState.output);
+                    times[count] = (pidState.timestamp - startTime) / 1e9;
+                    errors[count] = pidState.error;
+                    count++;
+                }
+                telemetry.addData("Samples", count);
+                telemetry.addData("Error", pidState.error);
+                telemetry.update();
+                idle();
+            }
+        } finally {
+            pidController.disable();
+            robot.leftMotor.setPower(0);
+            robot.rightMotor.setPower(0);
+        }
+
+        saveTrace(times, errors, count);
+
+        RelayAutoTune autoTune = new RelayAutoTune(RELAY_OUTPUT, HYSTERESIS);
+        boolean isTuned = autoTune.analyze(times, errors, count);
+        double voltage = robot.batVolt.getVoltage();
+        Log.i(TAG, String.format(Locale.US, "Tuned: %b | Ku: %f | Tu: %f | amplitude: %f | " +
+                        "cycles: %d | kp: %f | ki: %f | kd: %f | battery: %.2f", isTuned,
+                autoTune.ultimateGain, autoTune.ultimatePeriod, autoTune.amplitude,
+                autoTune.cycles, autoTune.kp, autoTune.ki, autoTune.kd, voltage));
+
+        SharedPreferences.Editor editor = robot.sharedPref.edit();
+        boolean isDone = !isTuned;
+        while (opModeIsActive() && !isDone) {
+            telemetry.addData("Ku / Tu", "%.4f / %.3f s", autoTune.ultimateGain,
+                    autoTune.ultimatePeriod);
+            telemetry.addData("Suggested", "kp %.4f ki %.4f kd %.4f", autoTune.kp, autoTune.ki,
+                    autoTune.kd);
+            telemetry.addData(">", "A: save the tuned gains, B: discard");
+            telemetry.update();
+            if (gamepad1.a) {
+                //A single entry schedule, the gains are used at any voltage and speed
+                new GainSchedule(new double[] {voltage}, new double[] {RELAY_OUTPUT})
+                        .setGains(0, 0, autoTune.kp, autoTune.ki, autoTune.kd)
+                        .save(editor, appContext.getString(R.string.Gyro_Rotate_Tuned_Gains));
+                editor.commit();
+                Log.i(TAG, "Tuned gains saved");
+                isDone = true;
+            } else if (gamepad1.b) {
+                isDone = true;
+            }
+            idle();
+        }
+        while (opModeIsActive()) {
+            telemetry.addData(">", isTuned ? "Done" : "No steady oscillation, try a bigger output");
+            telemetry.addData("Cycles", autoTune.cycles);
+            telemetry.update();
+            idle();
+        }
+        robot.close();
+    }
+
+    private void saveTrace(double[] times, double[] errors, int count) {
+        if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) return;
+        File file = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOCUMENTS), "gyro_autotune.csv");
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+            writer.write("Time(s),Error(deg)");
+            for (int i = 0; i < count; i++) {
+                writer.write(String.format(Locale.US, "\n%f,%f", times[i], errors[i]));
+            }
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the trace", e);
+        }
+    }
+}
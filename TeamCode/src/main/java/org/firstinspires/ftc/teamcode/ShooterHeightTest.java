@@ -31,9 +31,6 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 
 package org.firstinspires.ftc.teamcode;
 
-import android.content.Context;
-import android.os.Environment;
-
 import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
 import com.qualcomm.robotcore.eventloop.opmode.Disabled;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
@@ -41,15 +38,9 @@ import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 import com.qualcomm.robotcore.hardware.VoltageSensor;
 import com.qualcomm.robotcore.util.ElapsedTime;
 
+import org.steelhead.ftc.DataLogger;
 import org.steelhead.ftc.HardwareSteelheadMainBot;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.StreamCorruptedException;
-import java.util.Locale;
-
 /**
  * Demonstrates empty OpMode
  */
@@ -58,8 +49,7 @@ import java.util.Locale;
 public class ShooterHeightTest extends OpMode {
 
     private ElapsedTime runtime = new ElapsedTime();
-    private File pathToCSV = null;
-    private BufferedWriter writer = null;
+    private DataLogger logger = null;
     private long prevTime = 0;
 
     private VoltageSensor batVolt = null;
@@ -71,12 +61,10 @@ public class ShooterHeightTest extends OpMode {
         robot = new HardwareSteelheadMainBot();
         robot.init(hardwareMap);
 
-        try {
-            pathToCSV = openFile("test.csv");
-
-            writer = new BufferedWriter(new FileWriter(pathToCSV));
-            writer.write("Time(min),Bat Voltage(volt),Height");
-        } catch (IOException e) {
+        //The height is measured by hand and filled in later
+        logger = robot.openDataLogger("test", DataLogger.Column.number("Time(min)", 6),
+                DataLogger.Column.number("Bat Voltage(volt)", 2), DataLogger.Column.text("Height"));
+        if (logger == null) {
             telemetry.addData(">", "Write failed");
         }
     }
@@ -108,39 +96,29 @@ public class ShooterHeightTest extends OpMode {
         try {
             if ((runtime.seconds()-prevTime) >= 60) {
                 prevTime = (long)runtime.seconds();
-                writer.write("\n" + String.format(Locale.US, "%f", runtime.seconds()/60) + "," +
-                        String.format(Locale.US,"%2.2f", batVolt.getVoltage()) + ",");
+                if (logger != null) {
+                    logger.add(runtime.seconds() / 60).add(batVolt.getVoltage()).endRow();
+                }
                 robot.shooterServoDown(false);
                 Thread.sleep(800);
                 robot.shooterServoDown(true);
             }else if (batVolt.getVoltage() < 10 || robot.touchSensor.isPressed()) {
-                if (writer != null)
-                    writer.close();
                 robot.shooterPower(0);
                 requestOpModeStop();
             }
             telemetry.addData("Runtime", runtime.toString());
             telemetry.addData("PrevTime", prevTime);
-        } catch (IOException | InterruptedException e) {
+        } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
-
-    private File openFile(String fileName) throws IOException {
-        File file = null;
-        if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-            telemetry.addData(">", "Able to mount Media");
-            file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS), fileName);
-            telemetry.addData(">", file.toString());
-            if (!file.exists()) {
-                if (!file.createNewFile()) {
-                    telemetry.addData("!", "Could not create file");
-                }
-            } else {
-                telemetry.addData(">", "Directory exists");
-            }
-        }
-        return file;
+    /*
+     * Code to run when the op mode is stopped, closing the robot writes out the log
+     */
+    @Override
+    public void stop() {
+        robot.shooterPower(0);
+        robot.close();
     }
 }
@@ -3,16 +3,12 @@ package org.steelhead.ftc;
 import android.util.Log;
 
 import com.qualcomm.robotcore.hardware.HardwareMap;
-import com.qualcomm.robotcore.hardware.I2cController;
-import com.qualcomm.robotcore.hardware.I2cDevice;
-
-import java.util.concurrent.locks.Lock;
 
 /**
  * Created by alecmatthews on 10/18/16.
  */
 
-public class Adafruit_ColorSensor implements I2cController.I2cPortReadyCallback {
+public class Adafruit_ColorSensor extends I2cRegisterDevice {
     String LogId = "AdafrutCS:";
 
     static final byte
@@ -61,220 +57,197 @@ public class Adafruit_ColorSensor implements I2cController.I2cPortReadyCallback
         BDATA           = 0x1A - 128,
         BDATAH          = 0x1B - 128;
 
-    static final byte
-        READ_MODE = 0x00 - 128,
-        WRITE_MODE = 0x00;
-
-    static final int
-        CACHE_MODE = 0,
-        DEV_ADDR = 1,
-        REG_NUMBER = 2,
-        REG_COUNT = 3,
-        DATA_OFFSET = 4,
-        ACTION_FLAG = 31;   //0 = idle, -1 = transfer in progress
-
-    private ArrayQueue<I2cTransfer> transferQueue;
-    private I2cDevice           csDev;
-    private byte                csDevAddr;
-    private byte[]              rCache;
-    private byte[]              wCache;
-    private Lock                rLock;
-    private Lock                wLock;
-
-    private int clear           = 0;
-    private int red             = 0;
-    private int green           = 0;
-    private int blue            = 0;
+    /*
+     * The CRGB frame is published with a seqlock. The callback makes sampleLock odd, writes the
+     * frame, then makes it even again; a reader retries if the lock was odd or changed while it
+     * copied. The frame fields are volatile so the copy can't be reordered around the lock reads.
+     */
+    private volatile int  sampleLock    = 0;
+    private volatile int  clear         = 0;
+    private volatile int  red           = 0;
+    private volatile int  green         = 0;
+    private volatile int  blue          = 0;
+    private volatile long sampleTime    = 0;
     private int aTimeValue      = 0;
     private int controlValue    = 0;
     private int idValue         = 0;
+    private int statusValue     = 0;
 
-    public Adafruit_ColorSensor(HardwareMap hardwareMap, String deviceName) {
-        transferQueue = new ArrayQueue<I2cTransfer>();
-        csDev = hardwareMap.i2cDevice.get(deviceName);
-        csDevAddr = 2*ADDRESS;
+    private volatile long sampleCount       = 0;
+
+    //Threads blocked in waitForNewSample(), the callback only notifies when there are any
+    private final Object  sampleSignal      = new Object();
+    private volatile int  sampleWaiters     = 0;
+    private volatile long firstSampleTime   = 0;
+
+    //Reused by colorTemp(), it is called every loop
+    private final ColorSample tempSample    = new ColorSample();
 
-        rCache = csDev.getI2cReadCache();
-        wCache = csDev.getI2cWriteCache();
-        rLock = csDev.getI2cReadCacheLock();
-        wLock = csDev.getI2cWriteCacheLock();
+    public Adafruit_ColorSensor(HardwareMap hardwareMap, String deviceName) {
+        super(hardwareMap, deviceName, 2*ADDRESS);
 
         addWriteRequest(ENABLE, (byte) (ENABLE_PON | ENABLE_AEN));
         addReadRequest(ID, (byte) 1);
-        executeCommands();
-        csDev.registerForI2cPortReadyCallback(this);
+        setPollingPlan(defaultPollingPlan());
+        startTransfers();
         setGain(16);
         setIntegrationTime(50);
     }
 
-    public void close() {
-        transferQueue.close();
-        csDev.deregisterForPortReadyCallback();
-        csDev.close();
-    }
-
     @Override
-    public void portIsReady(int port) {
-        try {
-            rLock.lock();
-            if (rCache[0] == wCache[0] && rCache[1] == wCache[1] && rCache[2] == wCache[2] &&
-                    rCache[3] == wCache[3]) {
-                rCache[DEV_ADDR] = 0;
-                storeReceivedData();
-                executeCommands();
-            } else {
-                csDev.readI2cCacheFromController();
-            }
-        } finally {
-            rLock.unlock();
-        }
+    protected void onTransferComplete(byte regNumber, byte regCount, byte[] cache, int offset) {
+        storeReceivedData(regNumber, regCount, cache, offset);
     }
 
-    private void readCommand(byte regNumber, byte regCount) {
-        try {
-            wLock.lock();
-            wCache[CACHE_MODE] = READ_MODE;
-            wCache[DEV_ADDR] = csDevAddr;
-            wCache[REG_NUMBER] = regNumber;
-            wCache[REG_COUNT] = regCount;
-            wCache[ACTION_FLAG] = -1;
-        } finally {
-            wLock.unlock();
-        }
-        csDev.writeI2cCacheToController();
+    /*
+     * Read STATUS with the color data so AVALID comes back in the same transaction, and check
+     * the gain, id and integration time about once a second. On those slow polls ATIME through ID
+     * is one extra burst, since ATIME through BDATAH doesn't fit in the cache.
+     */
+    public static I2cPollingPlan defaultPollingPlan() {
+        return new I2cPollingPlan()
+                .addWindow(STATUS, DATA_LENGTH + 1, 1)
+                .addWindow(CONTROL, ID - CONTROL + 1, 50)
+                .addWindow(ATIME, 1, 50);
     }
 
-    private void writeCommand(byte regNumber, byte regCount, long regValue, boolean isLowFirst) {
-        try {
-            wLock.lock();
-            wCache[CACHE_MODE] = WRITE_MODE;
-            wCache[DEV_ADDR] = csDevAddr;
-            wCache[REG_NUMBER] = regNumber;
-            wCache[REG_COUNT] = regCount;
-            if (regCount == 1) {
-                wCache[DATA_OFFSET] = (byte) (regValue & 0xFF);
-            } else if (isLowFirst) {
-                for (int i = 0; i < regCount; i++) {
-                    wCache[DATA_OFFSET + i] = (byte) (regValue & 0xFF);
-                    regValue >>= 8;
-                }
-            } else {
-                for (int i = regCount - 1; i >= 0; i--) {
-                    wCache[DATA_OFFSET + i] = (byte) (regValue & 0xFF);
-                    regValue >>= 8;
-                }
-            }
-            wCache[ACTION_FLAG] = -1;
-        } finally {
-            wLock.unlock();
-        }
-        csDev.writeI2cCacheToController();
+    private void addWriteRequest(byte regNumber, byte regValue) {
+        addWriteRequest(regNumber, (byte) 1, regValue, true);
     }
 
-
-    private void executeCommands() {
-        boolean isRead  = false;
-        boolean isWrite = false;
-        boolean isLowFirst = false;
-        byte regNumber = 0;
-        byte regCount = 0;
-        long regValue = 0;
-        try {
-            wLock.lock();
-            if (!transferQueue.isEmpty()) {
-                I2cTransfer element = transferQueue.remove();
-                isWrite = element.mode == WRITE_MODE;
-                isRead = element.mode == READ_MODE;
-                regNumber = element.regNumber;
-                regCount = element.regCount;
-                regValue = element.regValue;
-                isLowFirst = element.isLowFirst;
-                element = null;
-            }
-        } finally {
-            wLock.unlock();
-        }
-        if (isWrite) {
-            writeCommand(regNumber, regCount, regValue, isLowFirst);
-        } else if (isRead) {
-            readCommand(regNumber, regCount);
-        } else {
-            readCommand(DATA_START, DATA_LENGTH);
-        }
+    private int getWord(byte[] cache, int offset, int lowByte, int highByte) {
+        int low = cache[offset + lowByte] & 0xFF;
+        int high = cache[offset + highByte] & 0xFF;
+        return 256*high + low;
     }
 
-    private void addWriteRequest(byte regNumber, byte regValue) {
-        addRequest(new I2cTransfer(regNumber, (byte) 1, regValue, true));
+    //Offset of a register inside a transfer, or -1 if the transfer doesn't cover it
+    private static int registerOffset(byte regNumber, byte regCount, byte register, int width) {
+        int index = (register & 0xFF) - (regNumber & 0xFF);
+        if (index < 0 || index + width > regCount) return -1;
+        return index;
     }
 
-    private void addWriteRequest(byte regNumber, byte regCount, byte regValue) {
-        addRequest(new I2cTransfer(regNumber, regCount, regValue, true));
-    }
+    //A transfer can be a burst over several registers, decode every register it covers
+    private void storeReceivedData(byte regNumber, byte regCount, byte[] cache, int offset) {
+        boolean isKnown = false;
+        int i;
 
-    private void addWriteRequest(byte regNumber, byte regCount, byte regValue, boolean isLowFirst) {
-        addRequest(new I2cTransfer(regNumber, regCount, regValue, isLowFirst));
+        boolean isDataValid = true;
+        if ((i = registerOffset(regNumber, regCount, STATUS, 1)) >= 0) {
+            statusValue = cache[offset + i] & 0xFF;
+            isDataValid = (statusValue & STATUS_AVALID) != 0;
+            isKnown = true;
+        }
+        if ((i = registerOffset(regNumber, regCount, DATA_START, DATA_LENGTH)) >= 0) {
+            if (isDataValid) {
+                long now = ControlClock.nanoTime();
+                sampleLock++;
+                clear = getWord(cache, offset + i, CDATA - DATA_START, CDATAH - DATA_START);
+                red = getWord(cache, offset + i, RDATA - DATA_START, RDATAH - DATA_START);
+                green = getWord(cache, offset + i, GDATA - DATA_START, GDATAH - DATA_START);
+                blue = getWord(cache, offset + i, BDATA - DATA_START, BDATAH - DATA_START);
+                sampleTime = now;
+                if (sampleCount == 0) firstSampleTime = now;
+                sampleCount++;
+                sampleLock++;
+                if (sampleWaiters > 0) {
+                    synchronized (sampleSignal) {
+                        sampleSignal.notifyAll();
+                    }
+                }
+            }
+            isKnown = true;
+        }
+        if (registerOffset(regNumber, regCount, ENABLE, 1) >= 0) {
+            isKnown = true;
+        }
+        if ((i = registerOffset(regNumber, regCount, ATIME, 1)) >= 0) {
+            aTimeValue = cache[offset + i] & 0xFF;
+            isKnown = true;
+        }
+        if ((i = registerOffset(regNumber, regCount, CONTROL, 1)) >= 0) {
+            controlValue = cache[offset + i] & 0xFF;
+            isKnown = true;
+        }
+        if ((i = registerOffset(regNumber, regCount, ID, 1)) >= 0) {
+            idValue = cache[offset + i] & 0xFF;
+            isKnown = true;
+        }
+        if (!isKnown) {
+            Log.e(LogId, String.format("Unexpected R[0x%02x] = 0x%02x received", regNumber, cache[offset]));
+        }
     }
 
-    private void addReadRequest(byte regNumber, byte regCount) {
-        transferQueue.add(new I2cTransfer(regNumber, regCount));
+    //Copy the latest CRGB frame into sample, returns false if no frame has arrived yet
+    public boolean getSample(ColorSample sample) {
+        int lock;
+        do {
+            lock = sampleLock;
+            while ((lock & 1) != 0) {
+                Thread.yield();
+                lock = sampleLock;
+            }
+            sample.clear = clear;
+            sample.red = red;
+            sample.green = green;
+            sample.blue = blue;
+            sample.timestamp = sampleTime;
+            sample.sequence = sampleCount;
+        } while (lock != sampleLock);
+        return sample.sequence != 0;
     }
 
-    private void addRequest(I2cTransfer element) {
-        try {
-            rLock.lock();
-            try {
-                wLock.lock();
-                transferQueue.add(element);
-            } finally {
-                wLock.unlock();
+    /*
+     * Block until a frame newer than sample.sequence arrives and copy it into sample. Returns
+     * false if the timeout runs out first, sample is left alone in that case. Pass a sample with
+     * sequence = getSampleCount() to wait for the next frame.
+     */
+    public boolean waitForNewSample(ColorSample sample, int timeoutMs) throws InterruptedException {
+        long lastSequence = sample.sequence;
+        if (sampleCount <= lastSequence) {
+            long deadline = ControlClock.nanoTime() + timeoutMs * 1000000L;
+            synchronized (sampleSignal) {
+                sampleWaiters++;
+                try {
+                    while (sampleCount <= lastSequence) {
+                        long remaining = (deadline - ControlClock.nanoTime()) / 1000000L;
+                        if (remaining <= 0) return false;
+                        sampleSignal.wait(ControlClock.toWallMillis(remaining));
+                    }
+                } finally {
+                    sampleWaiters--;
+                }
             }
-        } finally {
-            rLock.unlock();
         }
+        return getSample(sample);
     }
 
-    private int getWord(int lowByte, int highByte) {
-        int low = rCache[DATA_OFFSET + lowByte - DATA_START] & 0xFF;
-        int high = rCache[DATA_OFFSET + highByte - DATA_START] & 0xFF;
-        return 256*high + low;
+    //Number of valid CRGB samples received, this is also the sequence number of the last one
+    public long getSampleCount() {
+        return sampleCount;
     }
 
-    private void storeReceivedData() {
-        byte regNumber = rCache[REG_NUMBER];
-        byte regCount = rCache[REG_COUNT];
-
-        switch (regNumber) {
-            case DATA_START:
-                if(regCount == DATA_LENGTH) {
-                    clear = getWord(CDATA, CDATAH);
-                    red = getWord(RDATA, RDATAH);
-                    green = getWord(GDATA, GDATAH);
-                    blue = getWord(BDATA, BDATAH);
-                }
-                break;
-            case ENABLE:
-                break;
-            case ATIME:
-                aTimeValue = rCache[DATA_OFFSET] & 0xFF;
-                break;
-            case CONTROL:
-                controlValue = rCache[DATA_OFFSET] & 0xFF;
-                break;
-            case ID:
-                idValue = rCache[DATA_OFFSET] & 0xFF;
-                break;
-            default:
-                Log.e(LogId, String.format("Unexpected R[0x%02x] = 0x%02x received", regNumber, rCache[DATA_OFFSET]));
-                break;
-        }
+    //Average rate of valid CRGB samples since the first one
+    public double getSampleRate() {
+        long count = sampleCount;
+        if (count < 2) return 0;
+        double seconds = (ControlClock.nanoTime() - firstSampleTime) / 1e9;
+        return (count - 1) / seconds;
     }
 
     private int colorTemperature() {
-        if (red + green + blue == 0) return 999;
-
-        double r = red;
-        double g = green;
-        double b = blue;
+        double r;
+        double g;
+        double b;
+        synchronized (tempSample) {
+            getSample(tempSample);
+            if (tempSample.red + tempSample.green + tempSample.blue == 0) return 999;
+
+            r = tempSample.red;
+            g = tempSample.green;
+            b = tempSample.blue;
+        }
 
         double x = (-0.14282 * r) + (1.54924 * g) + (-0.95641 * b);
         double y = (-0.32466 * r) + (1.57837 * g) + (-0.73191 * b);
@@ -1,10 +1,5 @@
 package org.steelhead.ftc;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
-
 import com.qualcomm.robotcore.hardware.HardwareMap;
 
 /**
@@ -20,6 +15,10 @@ public class Adafruit_GFX {
     private int cursorX, cursorY;
     private Adafruit_LedMatrix.Color textColor = Adafruit_LedMatrix.Color.GREEN;
     private final char [] font;
+    //Glyphs pre-rasterized into 8 row masks each, bit i of a row is column i of the 6 wide cell
+    private final byte [] glyphRows;
+    private final int glyphCount;
+    private final SpriteSheetCache spriteSheets;
 
     private boolean animationRunning = false;
 
@@ -30,6 +29,19 @@ public class Adafruit_GFX {
         this.height = height;
         Font f = new Font();
         font = f.font;
+        glyphCount = font.length / 5;
+        glyphRows = new byte[glyphCount * 8];
+        for (int g = 0; g < glyphCount; g++) {
+            for (int i = 0; i < 5; i++) {
+                char line = font[5 * g + i];
+                for (int j = 0; j < 8; j++, line >>= 1) {
+                    if ((line & 0x1) == 1) {
+                        glyphRows[8 * g + j] |= 1 << i;
+                    }
+                }
+            }
+        }
+        spriteSheets = new SpriteSheetCache(hardwareMap.appContext);
     }
 
     public void clearDisplay() {
@@ -64,12 +76,16 @@ public class Adafruit_GFX {
             write(s.charAt(i));
         }
     }
+    //The string is rendered into an off screen strip once, each step only copies an 8 pixel
+    //window of it to the display
     public void scrollText(String s) {
+        long[][] strip = renderTextStrip(s);
         try {
             for (int i = 7; i >= -(s.length() * 7); i--) {
                 ledMatrix.clearDisplay();
-                setCursor(i, 1);
-                print(s);
+                for (int j = 0; j < 8; j++) {
+                    ledMatrix.drawRowMask(1 + j, stripWindow(strip[j], -i), textColor);
+                }
                 ledMatrix.updateDisplay();
                 Thread.sleep(100);
             }
@@ -77,22 +93,51 @@ public class Adafruit_GFX {
             Thread.currentThread().interrupt();
         }
     }
+
+    //One bitset per pixel row, bit n is column n of the string
+    private long[][] renderTextStrip(String s) {
+        int length = s.length();
+        long[][] strip = new long[8][((length * 6) >> 6) + 1];
+        for (int k = 0; k < length; k++) {
+            int g = s.charAt(k) - 32;
+            if (g < 0 || g >= glyphCount) continue;
+            int col = k * 6;
+            int word = col >> 6;
+            int bit = col & 63;
+            for (int j = 0; j < 8; j++) {
+                long bits = glyphRows[8 * g + j];
+                strip[j][word] |= bits << bit;
+                if (bit > 58) {
+                    strip[j][word + 1] |= bits >>> (64 - bit);
+                }
+            }
+        }
+        return strip;
+    }
+
+    //8 columns of a strip row starting at column start, columns outside the strip are blank
+    private static int stripWindow(long[] row, int start) {
+        if (start <= -8 || start >= row.length * 64) return 0;
+        if (start < 0) return (int) (row[0] << -start) & 0xFF;
+        int word = start >> 6;
+        int bit = start & 63;
+        long bits = row[word] >>> bit;
+        if (bit > 56 && word + 1 < row.length) {
+            bits |= row[word + 1] << (64 - bit);
+        }
+        return (int) bits & 0xFF;
+    }
+
     public void drawChar(byte x, byte y, char c, Adafruit_LedMatrix.Color color) {
         if ((x >= width) || (y >= height) || (x+6 < 0) || (y+8 < 0))
             return;
+        int g = c - 32;
+        if (g < 0 || g >= glyphCount) return;
 
-        for (int i = 0; i<6; i++) {
-            char line;
-            if (i < 5) {
-                line = font[(5*(c-32))+i];
-            }
-            else {
-                line = 0x0;
-            }
-            for (int j = 0; j<8; j++, line >>=1) {
-                if ((line & 0x1) == 1) {
-                    ledMatrix.drawPixel((byte)(x+i), (byte)(y+j), color);
-                }
+        for (int j = 0; j < 8; j++) {
+            int line = glyphRows[8 * g + j];
+            if (line != 0) {
+                ledMatrix.drawRowMask(y + j, x >= 0 ? line << x : line >> -x, color);
             }
         }
     }
@@ -110,10 +155,13 @@ public class Adafruit_GFX {
         drawFastVLine((byte)(x+w-1), y, h, color);
     }
     public void animateBmp(int id, int numberOfFrames, long sleepTime, boolean isLoop) {
+        //Decode the strip once, every frame is then a copy of its pre-packed rows
+        SpriteSheetCache.SpriteSheet sheet = spriteSheets.get(id);
+        numberOfFrames = Math.min(numberOfFrames, sheet.frameCount);
         int frame = 0;
-        animationRunning = true;
+        animationRunning = numberOfFrames > 0;
         while (animationRunning) {
-            drawBmpFromResource(id, frame);
+            ledMatrix.drawRows(sheet.rows, sheet.masks, frame * 8);
             ledMatrix.updateDisplay();
 
             try {
@@ -143,31 +191,11 @@ public class Adafruit_GFX {
         }
     }
 
+    //White pixels turn the led off, red/green/yellow set it and any other color leaves it alone
     public void drawBmpFromResource(int id, int imagePos) {
-        Context context = hardwareMap.appContext;
-        BitmapFactory.Options options= new BitmapFactory.Options();
-        options.inScaled = false;
-        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), id, options);
-
-        for(int y=0; y < 8; y++) {
-            for (int x=imagePos*8; x < (imagePos*8)+8; x++) {
-                int c = bitmap.getPixel(x, y);
-                switch (c) {
-                    case Color.WHITE:
-                        ledMatrix.drawPixel(x-(8*imagePos), y, Adafruit_LedMatrix.Color.OFF);
-                        break;
-                    case Color.RED:
-                        ledMatrix.drawPixel(x-(8*imagePos), y, Adafruit_LedMatrix.Color.RED);
-                        break;
-                    case Color.GREEN:
-                        ledMatrix.drawPixel(x-(8*imagePos), y, Adafruit_LedMatrix.Color.GREEN);
-                        break;
-                    case Color.YELLOW:
-                        ledMatrix.drawPixel(x-(8*imagePos), y, Adafruit_LedMatrix.Color.YELLOW);
-                        break;
-                }
-            }
-        }
+        SpriteSheetCache.SpriteSheet sheet = spriteSheets.get(id);
+        if (imagePos < 0 || imagePos >= sheet.frameCount) return;
+        ledMatrix.drawRows(sheet.rows, sheet.masks, imagePos * 8);
     }
     public void stopAnimation() {
         animationRunning = false;
@@ -1,20 +1,24 @@
 package org.steelhead.ftc;
 
 import com.qualcomm.robotcore.hardware.HardwareMap;
-import com.qualcomm.robotcore.hardware.I2cController;
-import com.qualcomm.robotcore.hardware.I2cDevice;
 
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Alec Matthews on 11/23/2016.
  * This is a driver for the adafruit 8x8 bi-color led matrix. It uses the Holtek HT16K33 as an i2c
  * to multiplexer converter. It supports different blink speeds and a low power sleep mode.
+ *
+ * Drawing goes into ramBuffer on the op mode thread. updateDisplay() copies it into a frame of a
+ * lock free triple buffer and swaps it in as the latest frame. When the transfer queue is empty
+ * the port callback swaps the latest frame out and only writes the rows that differ from what the
+ * display already shows, so a frame is never torn and updates made while a write is in flight
+ * collapse into one.
  */
 
 //// TODO: 11/25/16 Add methods to turn off the display and put it into sleep mode
 
-public class Adafruit_LedMatrix implements I2cController.I2cPortReadyCallback {
+public class Adafruit_LedMatrix extends I2cRegisterDevice {
 
     static final short
             ADDRESS = 0xe0, //Device address
@@ -48,43 +52,32 @@ public class Adafruit_LedMatrix implements I2cController.I2cPortReadyCallback {
         OFF
     }
 
-    static final byte
-            READ_MODE   = 0x00 - 128,
-            WRITE_MODE  = 0x00;
+    private static final int
+            FRAME_INDEX = 0x03,
+            FRAME_FRESH = 0x04;   //Set when the latest frame hasn't been picked up yet
 
-    static final int
-            CACHE_MODE  = 0,
-            DEV_ADDR    = 1,
-            REG_ADDR    = 2,
-            REG_COUNT   = 3,
-            DATA_OFFSET = 4,
-            ACTION_FLAG = 31;
-
-    private ArrayQueue<I2cTransferHT16K33> transferQueue;
-    private I2cDevice               dev;
-    private short                   devAddr;
-    private byte[]                  rCache;
-    private byte[]                  wCache;
-    private Lock                    rLock;
-    private Lock                    wLock;
     private int[]                 ramBuffer;
 
-    public Adafruit_LedMatrix(HardwareMap hardwareMap, String deviceName) {
-        transferQueue = new ArrayQueue<>();
-        dev = hardwareMap.i2cDevice.get(deviceName);
-        devAddr = ADDRESS;
+    //Triple buffer, back is owned by the op mode thread and front by the port callback
+    private final int[][]         frames = new int[3][8];
+    private final AtomicInteger   latestFrame = new AtomicInteger(1);
+    private int                   backFrame = 0;
+    private int                   frontFrame = 2;
 
-        rCache = dev.getI2cReadCache();
-        wCache = dev.getI2cWriteCache();
-        rLock = dev.getI2cReadCacheLock();
-        wLock = dev.getI2cWriteCacheLock();
+    //Rows the display is showing and the bytes of the rows being sent, only used by the port
+    //callback
+    private final int[]           shownRows = new int[8];
+    private final byte[]          rowBytes = new byte[16];
+    private boolean               isShownValid = false;
+
+    public Adafruit_LedMatrix(HardwareMap hardwareMap, String deviceName) {
+        super(hardwareMap, deviceName, ADDRESS);
 
         ramBuffer = new int[8];
 
         addCommandRequest((byte)(SYSTEM_SETUP | SYSTEM_ON));
         addCommandRequest((byte)(DISPLAY_SETUP | DISPLAY_ON));
-        executeCommands();
-        dev.registerForI2cPortReadyCallback(this);
+        startTransfers();
     }
 
     public void setBrightness(int brightness) {
@@ -143,114 +136,73 @@ public class Adafruit_LedMatrix implements I2cController.I2cPortReadyCallback {
         }
     }
 
-    public void updateDisplay() {
-        addUpdateScreenRequest();
-    }
-
-    public void close() {
-        transferQueue.close();
-        dev.deregisterForPortReadyCallback();
-        dev.close();
-    }
-    @Override
-    public void portIsReady(int port) {
-        try {
-            rLock.lock();
-            if (rCache[0] == wCache[0] && rCache[1] == wCache[1] && rCache[2] == wCache[2] &&
-                    rCache[3] == wCache[3]) {
-                rCache[DEV_ADDR] = 0;
-
-                executeCommands();
-            } else {
-                dev.readI2cCacheFromController();
-            }
-        } finally {
-            rLock.unlock();
+    //Set the pixels of row y whose bits are set in mask (bit x = column x) to color
+    public void drawRowMask(int y, int mask, Color color) {
+        if ((y < 0) || (y >= 8)) return;
+        int green = mask & 0xFF;
+        int red = green << 8;
+        switch (color) {
+            case GREEN:
+                ramBuffer[y] = (ramBuffer[y] | green) & ~red;
+                break;
+            case RED:
+                ramBuffer[y] = (ramBuffer[y] | red) & ~green;
+                break;
+            case YELLOW:
+                ramBuffer[y] |= green | red;
+                break;
+            case OFF:
+                ramBuffer[y] &= ~(green | red);
+                break;
         }
     }
 
-    private void executeCommands() {
-        boolean isWrite = false;
-        boolean isCommandTransfer = false;
-        short regAddr = 0;
-
-        try {
-            wLock.lock();
-            if (!transferQueue.isEmpty()) {
-                I2cTransferHT16K33 element = transferQueue.remove();
-                isWrite = (element.mode == WRITE_MODE);
-                regAddr = element.regAddr;
-                isCommandTransfer = element.isCommandTransfer;
-                element = null;
-            }
-        } finally {
-            wLock.unlock();
-        }
-        if (isWrite) {
-            if (isCommandTransfer) {
-                writeCommand(regAddr);
-            }else {
-                writeDisplay(ramBuffer);
-            }
+    //Masked copy of eight pre-packed row words, rows[i] are the new bits under masks[i]
+    public void drawRows(int[] rows, int[] masks, int offset) {
+        for (int y = 0; y < 8; y++) {
+            ramBuffer[y] = (ramBuffer[y] & ~masks[offset + y]) | rows[offset + y];
         }
     }
 
-    private void writeCommand(short regAddr) {
-        try {
-            wLock.lock();
-            wCache[CACHE_MODE] = WRITE_MODE;
-            wCache[DEV_ADDR] = (byte)(devAddr & 0xFF);
-            wCache[REG_ADDR] = (byte)(regAddr & 0xFF);
-            wCache[REG_COUNT] = 1;
-
-            wCache[ACTION_FLAG] = -1;
-        } finally {
-            wLock.unlock();
-        }
-        dev.writeI2cCacheToController();
-    }
-    private void writeDisplay(int[] ramBuffer) {
-        try {
-            wLock.lock();
-            wCache[CACHE_MODE] = WRITE_MODE;
-            wCache[DEV_ADDR] = (byte)(devAddr & 0xFF);
-            wCache[REG_ADDR] = (byte)(SCREEN_RAM_START & 0xFF);
-            wCache[REG_COUNT] = (byte)16;
-            int offsetCounter = 0;
-            for (int i = 0; i<8; i++) {
-                wCache[DATA_OFFSET + offsetCounter] = (byte)(ramBuffer[i] & 0xFF);
-                offsetCounter++;
-                wCache[DATA_OFFSET + offsetCounter] = (byte)((ramBuffer[i]>>8) & 0xFF);
-                offsetCounter++;
-            }
-            wCache[ACTION_FLAG] = -1;
-        } finally {
-            wLock.unlock();
+    //Publish the drawing as the latest frame, it is sent once the transfer queue is empty
+    public void updateDisplay() {
+        int[] frame = frames[backFrame];
+        for (int i = 0; i < 8; i++) {
+            frame[i] = ramBuffer[i];
         }
-        dev.writeI2cCacheToController();
+        backFrame = latestFrame.getAndSet(backFrame | FRAME_FRESH) & FRAME_INDEX;
     }
 
-    private void addCommandRequest(byte regAddr) {
-        addRequest(new I2cTransferHT16K33(regAddr, true));
-    }
-
-    private void addUpdateScreenRequest() {
-
-        addRequest(new I2cTransferHT16K33(false));
-    }
+    //Take the latest frame and write the span of rows that changed
+    @Override
+    protected void onQueueEmpty() {
+        if ((latestFrame.get() & FRAME_FRESH) == 0) return;
+        frontFrame = latestFrame.getAndSet(frontFrame) & FRAME_INDEX;
+
+        int[] frame = frames[frontFrame];
+        int first = 0;
+        int last = 7;
+        if (isShownValid) {
+            while (first < 8 && frame[first] == shownRows[first]) first++;
+            if (first == 8) return;
+            while (frame[last] == shownRows[last]) last--;
+        }
 
-    private void addRequest(I2cTransferHT16K33 element) {
-        try {
-            rLock.lock();
-            try {
-                wLock.lock();
-                transferQueue.add(element);
-            } finally {
-                wLock.unlock();
-            }
-        } finally {
-            rLock.unlock();
+        //Each row is a green byte followed by a red byte
+        int offsetCounter = 0;
+        for (int i = first; i <= last; i++) {
+            rowBytes[offsetCounter] = (byte)(frame[i] & 0xFF);
+            offsetCounter++;
+            rowBytes[offsetCounter] = (byte)((frame[i]>>8) & 0xFF);
+            offsetCounter++;
+            shownRows[i] = frame[i];
         }
+        issueWrite((byte) (SCREEN_RAM_START + 2 * first), (byte) offsetCounter, rowBytes, 0);
+        isShownValid = true;
     }
 
+    //Nothing is read back from the display
+    @Override
+    protected void onTransferComplete(byte regNumber, byte regCount, byte[] cache, int offset) {
+    }
 }
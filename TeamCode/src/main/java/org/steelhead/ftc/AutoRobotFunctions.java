@@ -9,9 +9,10 @@ import com.qualcomm.robotcore.hardware.ColorSensor;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 import com.qualcomm.robotcore.hardware.TouchSensor;
-import com.qualcomm.robotcore.util.ElapsedTime;
 import com.qualcomm.hardware.modernrobotics.ModernRoboticsI2cGyro;
 
+import org.firstinspires.ftc.teamcode.R;
+
 /**
  * Created by Alec Matthews on 11/6/2016.
  * This class is made to simplify the robots autonomous programs.
@@ -37,6 +38,22 @@ public class AutoRobotFunctions {
     private double gyroRotateKI;
     private double gyroRotateKD;
 
+    //Gain schedules from the preferences, they replace the fixed gains when they are set
+    private GainSchedule gyroRotateSchedule;
+    private GainSchedule gyroDriveSchedule;
+    private GainSchedule colorSchedule;
+
+    //Heading profile for MRRotate, a max velocity of 0 turns it off
+    private double rotateMaxVelocity = 0;
+    private double rotateMaxAcceleration = 0;
+    private double rotateKV = 0;
+    private double rotateKA = 0;
+
+    //Distance profile for MRDriveStraight, encoder counts per second at full power and the
+    //seconds it takes to get up to speed. 0 until the robot has been measured.
+    private double driveCountsPerSecond = 0;
+    private double driveAccelerationTime = 0;
+
     private double gyroDriveKP;
     private double gyroDriveKI;
     private double gyroDriveKD;
@@ -49,14 +66,54 @@ public class AutoRobotFunctions {
     //NavX Sensor
     private final byte NAVX_DEVICE_UPDATE_RATE_HZ = 50;
     private final int DEVICE_TIMEOUT_MS = 500;
+
+    //Longest wait for a PID controller's first output or a fresh beacon color frame
+    private final int PID_START_TIMEOUT_MS = 100;
+    private final int BEACON_SAMPLE_TIMEOUT_MS = 100;
     private AHRS navXDevice;
 
+    //Motion watchdog limits, a move is given up when it runs past its deadline, when at least
+    //STALL_POWER is applied and the robot hasn't moved for STALL_MS, or when it stops getting
+    //closer to its target for PROGRESS_WINDOW_MS
+    private final int ROTATE_TIMEOUT_MS = 4000;
+    private final int DRIVE_TIMEOUT_MS = 10000;
+    private final int LINE_FOLLOW_TIMEOUT_MS = 10000;
+    private final int ENCODER_TIMEOUT_MS = 8000;
+    private final double STALL_POWER = 0.15;
+    private final int STALL_COUNTS = 20;
+    private final int STALL_DEGREES = 1;
+    private final int STALL_MS = 500;
+    private final int PROGRESS_COUNTS = 50;
+    private final int PROGRESS_WINDOW_MS = 1000;
+
+    //How the last motion primitive ended
+    private MotionResult lastMotionResult = MotionResult.COMPLETED;
+
+    //How often the motion loops send their telemetry to the driver station
+    private double telemetryRateHz = 4;
+
+    //MRRotate keeps one display for all of the turns, made on the first turn
+    private TelemetryStage rotateDisplay = null;
+    private int rotateOutputSlot;
+    private int rotateAbortSlot;
+    private int rotateTimeSlot;
+    private int rotateYawSlot;
+
+    //Control loop log events, registered once in the constructor
+    private final EventLog eventLog = EventLog.getInstance();
+    private final int encoderEvent;
+
+    //Records every tick of the motion loops when it is started
+    private final int FLIGHT_RECORDER_CAPACITY = 8192;
+    private FlightRecorder recorder = null;
+
     //Rest of the sensors
     private LinearOpMode currentOpMode;
     private ColorSensor color;
     private Adafruit_ColorSensor beaconColor;
     private TouchSensor touchSensor;
     private ModernRoboticsI2cGyro gyro;
+    private GyroSampleMonitor gyroMonitor;
 
     public enum StopConditions {COLOR, ENCODER, BUTTON}
 
@@ -78,6 +135,8 @@ public class AutoRobotFunctions {
         this.color = robot.color;
         this.gyro = robot.gyro;
         this.beaconColor = robot.beaconColor;
+        encoderEvent = eventLog.register(TAG + ":Encoder",
+                "SPEED: %f | ENC LEFT: %d | ENC RIGHT: %d");
 
         //Setup the navX sensor and wait for calibration to complete
         navXDevice = AHRS.getInstance(hardwareMap.deviceInterfaceModule.get("dim"),
@@ -106,10 +165,17 @@ public class AutoRobotFunctions {
         this.touchSensor = robot.touchSensor;
         this.color = robot.color;
         this.gyro = robot.gyro;
+        this.gyroMonitor = robot.gyroMonitor;
         this.beaconColor = robot.beaconColor;
         navXDevice = null;
 
+        gyroRotateSchedule = robot.loadGainSchedule(R.string.Gyro_Rotate_Gains);
+        gyroDriveSchedule = robot.loadGainSchedule(R.string.Gyro_Drive_Gains);
+        colorSchedule = robot.loadGainSchedule(R.string.Color_Gains);
+
         TAG += logTag;
+        encoderEvent = eventLog.register(TAG + ":Encoder",
+                "SPEED: %f | ENC LEFT: %d | ENC RIGHT: %d");
 
         gyro.calibrate();
         currentOpMode.telemetry.addData("Gyro", "Calibrating. Do Not Move!!");
@@ -122,155 +188,303 @@ public class AutoRobotFunctions {
         currentOpMode.telemetry.update();
     }
 
-    //MR Gyro rotate PID
-    public void MRRotate(int degree, int tolerance,
-                         double minMotorOutput, double maxMotorOutput) {
-        ElapsedTime rotateTime = new ElapsedTime();
+    //MR Gyro rotate PID, returns how long the turn took to settle and how far it overshot
+    public TurnResult MRRotate(int degree, int tolerance,
+                               double minMotorOutput, double maxMotorOutput) {
+        long rotateStart = ControlClock.nanoTime();
         boolean rotationComplete = false;
         double angle = 0;
+        double leftPower = 0;
+        double rightPower = 0;
+        TurnResult result = new TurnResult();
+        int startAngle = gyro.getIntegratedZValue();
+        int direction = degree >= startAngle ? 1 : -1;
 
+        PidSnapshot pidState = new PidSnapshot();
         GyroPIDController pidController = new GyroPIDController(this.gyro, degree, tolerance,
                 TAG + ":Rotate");
         pidController.setPID(gyroRotateKP, gyroRotateKI, gyroRotateKD);
-        pidController.enable();
+        pidController.setOutputRange(minMotorOutput, maxMotorOutput);
+        if (gyroRotateSchedule != null) {
+            pidController.setGainSchedule(gyroRotateSchedule, robot.batVolt);
+            pidController.setCommandedSpeed(maxMotorOutput);
+        }
+        if (rotateMaxVelocity > 0 && rotateMaxAcceleration > 0) {
+            pidController.setProfile(new TrapezoidProfile(startAngle, degree, rotateMaxVelocity,
+                    rotateMaxAcceleration), rotateKV, rotateKA);
+        }
+        enablePID(pidController);
+
+        //Only the deadline, a turn can settle slowly on the integral at low power
+        MotionWatchdog watchdog = new MotionWatchdog(ROTATE_TIMEOUT_MS);
+
+        if (rotateDisplay == null) {
+            rotateDisplay = new TelemetryStage(currentOpMode.telemetry, telemetryRateHz);
+            rotateOutputSlot = rotateDisplay.addSlot("Output");
+            rotateAbortSlot = rotateDisplay.addSlot(">");
+            rotateTimeSlot = rotateDisplay.addSlot("Time to error");
+            rotateYawSlot = rotateDisplay.addSlot("Yaw");
+        } else {
+            //An abort of the last turn isn't this one's, clear it before the first flush
+            rotateDisplay.clear(rotateAbortSlot);
+        }
+        TelemetryStage display = rotateDisplay;
+        int outputSlot = rotateOutputSlot;
+        int abortSlot = rotateAbortSlot;
+        int timeSlot = rotateTimeSlot;
+        int yawSlot = rotateYawSlot;
+        display.start();
 
         try {
-            Thread.sleep(10);
-            rotateTime.reset();
+            pidController.waitForOutput(PID_START_TIMEOUT_MS);
+            rotateStart = ControlClock.nanoTime();
+            watchdog.start(ControlClock.nanoTime());
             while (!rotationComplete && currentOpMode.opModeIsActive()) {
                 angle = gyro.getIntegratedZValue();
-                if (pidController.isOnTarget()) {
+                int overshoot = direction * ((int) angle - degree);
+                if (overshoot > result.overshoot) result.overshoot = overshoot;
+
+                //Only touch the motors when the controller has calculated something new
+                boolean isNewState = pidController.getSnapshot(pidState);
+                if (pidState.isOnTarget) {
                     leftMotor.setPower(0);
                     rightMotor.setPower(0);
                     rotationComplete = true;
+                    result.isSettled = true;
+                    result.motion = MotionResult.COMPLETED;
+                    result.settleTimeMs = ControlClock.millisecondsSince(rotateStart);
                 } else {
-                    double output = pidController.getOutput();
-
-                    leftMotor.setPower(limit(output, minMotorOutput, maxMotorOutput));
-                    rightMotor.setPower(limit(-output, minMotorOutput, maxMotorOutput));
+                    double output = pidState.output;
+                    double power = limit(output, minMotorOutput, maxMotorOutput);
+
+                    if (isNewState) {
+                        leftPower = power;
+                        rightPower = limit(-output, minMotorOutput, maxMotorOutput);
+                        leftMotor.setPower(leftPower);
+                        rightMotor.setPower(rightPower);
+                    }
 
-                    currentOpMode.telemetry.addData("Output", output);
-                    if (rotateTime.milliseconds() > 4000) {
-                        currentOpMode.telemetry.addData(">", "reevaluate your life choices!");
-                        Log.i(TAG + ":Rotate", "Rotate Timed out!!");
+                    display.set(outputSlot, output);
+                    MotionResult motion = watchdog.check(0, angle, power,
+                            Math.abs(degree - angle), ControlClock.nanoTime());
+                    if (motion != MotionResult.RUNNING) {
+                        leftMotor.setPower(0);
+                        rightMotor.setPower(0);
+                        display.set(abortSlot, "reevaluate your life choices!");
+                        Log.i(TAG + ":Rotate", "Rotate aborted: " + motion);
                         rotationComplete = true;
+                        result.isTimedOut = motion == MotionResult.TIMEOUT;
+                        result.motion = motion;
+                        result.settleTimeMs = ControlClock.millisecondsSince(rotateStart);
                     }
                 }
-                currentOpMode.telemetry.addData("Time to error", rotateTime.milliseconds());
-                currentOpMode.telemetry.addData("Yaw", angle);
-                currentOpMode.telemetry.update();
+                //One record per PID calculation, and the stop
+                if (recorder != null && (isNewState || rotationComplete)) {
+                    recorder.timestamp = ControlClock.nanoTime();
+                    recorder.heading = (int) angle;
+                    recorder.setpoint = degree;
+                    recorder.setPid(pidState);
+                    recorder.leftPower = rotationComplete ? 0 : leftPower;
+                    recorder.rightPower = rotationComplete ? 0 : rightPower;
+                    recorder.commit(FlightRecorder.ROTATE);
+                }
+                display.set(timeSlot, ControlClock.millisecondsSince(rotateStart));
+                display.set(yawSlot, angle);
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
             Thread.currentThread().interrupt();
         } finally {
             pidController.disable();
+            display.stop();
+            logPIDTiming(TAG + ":Rotate", pidController);
         }
+        result.finalError = gyro.getIntegratedZValue() - degree;
+        lastMotionResult = result.motion;
+        Log.i(TAG + ":Rotate", String.format("Turn %d -> %d | %s", startAngle, degree, result));
+        return result;
     }
 
-    //PID controller for MR Gyro
+    /*
+     * PID controller for MR Gyro. Unless motorSpeedMul is -1 the robot slows down by
+     * motorSpeedMul per count over the last 500 counts before encoderDistance, down to
+     * minEndPower. Once setDriveProfile() has been called it follows a distance profile instead,
+     * which slows down to minEndPower at encoderDistance. Either way it creeps on at minEndPower
+     * from there with the heading held the whole way. With -1 it drives at driveSpeed until it
+     * stops. Each wheel stays between minOutputVal and maxOutputVal. Near the end the lower limit
+     * drops to the forward power, so the slowdown isn't clamped away and the correction steers
+     * by speeding up one wheel.
+     */
     public boolean MRDriveStraight(int degree, double driveSpeed, double minOutputVal,
                                    double maxOutputVal, int tolerance, double motorSpeedMul,
                                    int encoderDistance, double minEndPower,
                                    StopConditions stopCondition, int stopVal,
                                    int maxEncoderDistance) {
-        double workingForwardSpeed = driveSpeed;
+        return MRDriveStraight(degree, driveSpeed, minOutputVal, maxOutputVal, tolerance,
+                motorSpeedMul, encoderDistance, minEndPower,
+                StopCondition.from(stopCondition, stopVal, maxEncoderDistance));
+    }
+
+    /*
+     * Same as above with a stop condition object. Returns false if the condition ended with an
+     * overshoot. When the watchdog gives up it still returns true, getLastMotionResult() tells
+     * how the drive ended.
+     */
+    public boolean MRDriveStraight(int degree, double driveSpeed, double minOutputVal,
+                                   double maxOutputVal, int tolerance, double motorSpeedMul,
+                                   int encoderDistance, double minEndPower,
+                                   StopCondition stopCondition) {
         double output = 0;
-        boolean pidEnable = true;
+        boolean isOnLine = true;
         robot.stopAndClearEncoders();
         robot.enableEncoders(true);
 
+        //Outer distance loop, the gyro PID below is the inner heading loop. It needs the measured
+        //drive speed, without it the drive slows down linearly near the end.
+        DriveController driveController = null;
+        if (motorSpeedMul != -1 && driveCountsPerSecond > 0 && driveAccelerationTime > 0) {
+            double maxVelocity = driveSpeed * driveCountsPerSecond;
+            driveController = new DriveController(encoderDistance, maxVelocity,
+                    maxVelocity / driveAccelerationTime, minEndPower, driveSpeed);
+        }
+
+        PidSnapshot pidState = new PidSnapshot();
         GyroPIDController pidController = new GyroPIDController(this.gyro, degree, tolerance,
                 TAG + ":Drive Straight");
         pidController.setPID(gyroDriveKP, gyroDriveKI, gyroDriveKD);
-        pidController.enable();
+        //A correction bigger than the motor output span can't change either motor any more
+        pidController.setOutputRange(minOutputVal - maxOutputVal, maxOutputVal - minOutputVal);
+        if (gyroDriveSchedule != null) {
+            pidController.setGainSchedule(gyroDriveSchedule, robot.batVolt);
+            pidController.setCommandedSpeed(driveSpeed);
+        }
+        enablePID(pidController);
+
+        //Only the sensors the stop condition needs are read, the encoder and heading are always
+        //needed
+        SensorFrame frame = new SensorFrame(robot);
+        int sensors = stopCondition.getSensors() | SensorFrame.ENCODER | SensorFrame.HEADING;
+        stopCondition.reset();
+
+        MotionWatchdog watchdog = new MotionWatchdog(DRIVE_TIMEOUT_MS)
+                .setStallDetection(STALL_POWER, STALL_COUNTS, 0, STALL_MS)
+                .setProgressDetection(PROGRESS_COUNTS, PROGRESS_WINDOW_MS);
+        lastMotionResult = MotionResult.STOPPED;
+
+        TelemetryStage display = new TelemetryStage(currentOpMode.telemetry, telemetryRateHz);
+        int yawSlot = display.addSlot("Gyro Yaw");
+        int trackingSlot = display.addSlot("Tracking Error");
+        int outputSlot = display.addSlot("Output");
+        int leftSpeedSlot = display.addSlot("Left Speed");
+        int rightSpeedSlot = display.addSlot("Right Speed");
+        int rightEncoderSlot = display.addSlot("Right Encoder");
+        display.start();
 
         try {
-            //Sleep to allow the pid controller to calculate a first value
-            Thread.sleep(10);
+            //Wait for the pid controller to calculate a first value
+            pidController.waitForOutput(PID_START_TIMEOUT_MS);
+            long startTime = ControlClock.nanoTime();
+            if (driveController != null) driveController.start(startTime);
+            watchdog.start(startTime);
+            double leftSpeed = 0;
+            double rightSpeed = 0;
+            double workingForwardSpeed = driveSpeed;
+            int lastPosition = Integer.MIN_VALUE;
             while (currentOpMode.opModeIsActive()) {
-                currentOpMode.telemetry.addData("Gyro Yaw", gyro.getIntegratedZValue());
-
-                //Check for different stop conditions and handle them appropriately
-                if (stopCondition == StopConditions.COLOR && color.alpha() > stopVal) {
-                    leftMotor.setPower(0);
-                    rightMotor.setPower(0);
-                    break;
-                } else if (stopCondition == StopConditions.ENCODER &&
-                        rightMotor.getCurrentPosition() >= stopVal) {
-                    leftMotor.setPower(0);
-                    rightMotor.setPower(0);
-                    break;
-                } else if (stopCondition == StopConditions.BUTTON && touchSensor.isPressed()) {
+                //Check the stop condition, an overshoot means the robot missed the line
+                frame.read(sensors);
+                int position = frame.position;
+                int heading = frame.heading;
+                MotionResult stop = stopCondition.check(frame);
+                if (stop != MotionResult.RUNNING) {
                     leftMotor.setPower(0);
                     rightMotor.setPower(0);
+                    isOnLine = stop != MotionResult.OVERSHOOT;
+                    lastMotionResult = stop;
                     break;
                 }
 
-                //Get the PID controller output and apply it to the motors
-                if (pidEnable) {
-                    output = pidController.getOutput();
-                    if (pidController.isOnTarget()) {
-                        leftMotor.setPower(workingForwardSpeed);
-                        rightMotor.setPower(workingForwardSpeed);
-                        currentOpMode.telemetry.addData("Output", workingForwardSpeed);
+                //Only touch the motors when the heading controller calculated something new or
+                //the encoder moved
+                boolean isNewState = pidController.getSnapshot(pidState);
+                if (isNewState || position != lastPosition) {
+                    lastPosition = position;
+
+                    //A positive correction speeds up the left side
+                    output = pidState.isOnTarget ? 0 : pidState.output;
+                    double correction = robot.isRobotBackward() ? -output : output;
+                    if (driveController != null) {
+                        driveController.update(position, correction, frame.timestamp);
+                        double forward = driveController.getForwardPower();
+                        double minSpeed = Math.min(minOutputVal, forward);
+                        leftSpeed = limit(driveController.leftPower, minSpeed, maxOutputVal);
+                        rightSpeed = limit(driveController.rightPower, minSpeed, maxOutputVal);
+                        pidController.setCommandedSpeed(forward);
+                        display.set(trackingSlot, driveController.getDistanceError());
                     } else {
-                        if (robot.isRobotBackward()) {
-                            double leftSpeed = limit((workingForwardSpeed - output), minOutputVal, maxOutputVal);
-                            double rightSpeed = limit((workingForwardSpeed + output), minOutputVal, maxOutputVal);
-
-                            currentOpMode.telemetry.addData("Output", output);
-                            currentOpMode.telemetry.addData("Left Speed", leftSpeed);
-                            currentOpMode.telemetry.addData("Right Speed", rightSpeed);
-                            leftMotor.setPower(leftSpeed);
-                            rightMotor.setPower(rightSpeed);
-                        } else {
-                            double leftSpeed = limit((workingForwardSpeed + output), minOutputVal, maxOutputVal);
-                            double rightSpeed = limit((workingForwardSpeed - output), minOutputVal, maxOutputVal);
-
-                            currentOpMode.telemetry.addData("Output", output);
-                            currentOpMode.telemetry.addData("Left Speed", leftSpeed);
-                            currentOpMode.telemetry.addData("Right Speed", rightSpeed);
-                            leftMotor.setPower(leftSpeed);
-                            rightMotor.setPower(rightSpeed);
+                        /*
+                         * Slow the robot as it gets close to the line so it does not overshoot,
+                         * This is basically a P controller.
+                         * If the multiplier is equal to -1 turn off the speed reduction
+                         */
+                        if (motorSpeedMul != -1 && position >= (encoderDistance - 500)) {
+                            int error = (encoderDistance - position) - 500;
+                            workingForwardSpeed = Math.max(minEndPower,
+                                    driveSpeed + error * motorSpeedMul);
+                            pidController.setCommandedSpeed(workingForwardSpeed);
                         }
+                        double minSpeed = Math.min(minOutputVal, workingForwardSpeed);
+                        leftSpeed = limit((workingForwardSpeed + correction), minSpeed,
+                                maxOutputVal);
+                        rightSpeed = limit((workingForwardSpeed - correction), minSpeed,
+                                maxOutputVal);
+                    }
+                    leftMotor.setPower(leftSpeed);
+                    rightMotor.setPower(rightSpeed);
+
+                    display.set(yawSlot, heading);
+                    display.set(outputSlot, output);
+                    display.set(leftSpeedSlot, leftSpeed);
+                    display.set(rightSpeedSlot, rightSpeed);
+                    display.set(rightEncoderSlot, position);
+
+                    if (recorder != null) {
+                        recorder.timestamp = frame.timestamp;
+                        recorder.rightPosition = position;
+                        recorder.heading = heading;
+                        recorder.alpha = frame.alpha;
+                        recorder.setpoint = degree;
+                        recorder.setPid(pidState);
+                        recorder.leftPower = leftSpeed;
+                        recorder.rightPower = rightSpeed;
+                        recorder.commit(FlightRecorder.DRIVE);
                     }
-                } else {
-                    leftMotor.setPower(workingForwardSpeed);
-                    rightMotor.setPower(workingForwardSpeed);
-                }
-
-                //check to see if the robot overshoots the line
-                if (maxEncoderDistance != -1 && rightMotor.getCurrentPosition() >= maxEncoderDistance) {
-                    pidController.disable();
-                    return false;
                 }
 
-                /*
-                 * Slow the robot as it gets close to the line so it does not overshoot,
-                 * This is basically a P controller.
-                 * If the multiplier is equal to -1 turn off the speed reduction
-                 */
-                if (motorSpeedMul != -1) {
-                    if (rightMotor.getCurrentPosition() >= (encoderDistance - 500)) {
-                        int error = (encoderDistance - rightMotor.getCurrentPosition()) - 500;
-                        workingForwardSpeed = driveSpeed + error * motorSpeedMul;
-                        if (workingForwardSpeed < minEndPower) {
-                            workingForwardSpeed = minEndPower;
-                            pidEnable = false;
-                        }
-                    }
+                MotionResult motion = watchdog.check(position, heading,
+                        Math.max(Math.abs(leftSpeed), Math.abs(rightSpeed)),
+                        encoderDistance - position, frame.timestamp);
+                if (motion != MotionResult.RUNNING) {
+                    leftMotor.setPower(0);
+                    rightMotor.setPower(0);
+                    Log.i(TAG + ":DriveStraight", "Drive aborted: " + motion);
+                    lastMotionResult = motion;
+                    break;
                 }
-                currentOpMode.telemetry.addData("Right Encoder", rightMotor.getCurrentPosition());
-                currentOpMode.telemetry.addData("Left Encoder", leftMotor.getCurrentPosition());
-                currentOpMode.telemetry.update();
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } finally {
             pidController.disable();
-            return true;
+            display.stop();
+            logPIDTiming(TAG + ":DriveStraight", pidController);
+            if (driveController != null) {
+                Log.i(TAG + ":DriveStraight", String.format("Ticks: %d | max tracking error: " +
+                        "%.0f counts", driveController.getUpdateCount(),
+                        driveController.getMaxDistanceError()));
+            }
         }
+        return isOnLine;
     }
 
     //NavX PID controller for rotation to a degree
@@ -328,7 +542,7 @@ public class AutoRobotFunctions {
         double workingForwardSpeed = driveSpeed;
         //double rampMul = driveSpeed / 500;
         boolean rampComplete = true;
-        ElapsedTime rampTime = new ElapsedTime();
+        long rampStart = ControlClock.nanoTime();
         //Enable and clear the encoders
         robot.stopAndClearEncoders();
         robot.enableEncoders(true);
@@ -345,7 +559,10 @@ public class AutoRobotFunctions {
         yawPIDController.enable(true);
         navXPIDController.PIDResult yawPIDResult = new navXPIDController.PIDResult();
 
-        rampTime.reset();
+        StopCondition stop = StopCondition.from(stopCondition, stopVal, -1);
+        SensorFrame frame = new SensorFrame(robot);
+
+        rampStart = ControlClock.nanoTime();
         try {
             while (currentOpMode.opModeIsActive() && !Thread.currentThread().isInterrupted()) {
 
@@ -353,25 +570,16 @@ public class AutoRobotFunctions {
                 currentOpMode.telemetry.addData("Left Encoder", leftMotor.getCurrentPosition());
                 //ramp the motor up to prevent damage and jerk
 
-                /*if (!rampComplete && rampTime.milliseconds() <= 500) {
-                    int error = (int) rampTime.milliseconds();
+                /*if (!rampComplete && ControlClock.millisecondsSince(rampStart) <= 500) {
+                    int error = (int) ControlClock.millisecondsSince(rampStart);
                     workingForwardSpeed = error * rampMul;
                     if (workingForwardSpeed > driveSpeed) {
                         workingForwardSpeed = driveSpeed;
                         rampComplete = true;
                     }
                 }*/
-                if (stopCondition == StopConditions.COLOR && color.alpha() > stopVal) {
-                    leftMotor.setPower(0);
-                    rightMotor.setPower(0);
-                    break;
-                } else if (stopCondition == StopConditions.ENCODER) {
-                    if (rightMotor.getCurrentPosition() >= stopVal) {
-                        leftMotor.setPower(0);
-                        rightMotor.setPower(0);
-                        break;
-                    }
-                } else if (stopCondition == StopConditions.BUTTON && touchSensor.isPressed()) {
+                frame.read(stop.getSensors());
+                if (stop.check(frame) != MotionResult.RUNNING) {
                     leftMotor.setPower(0);
                     rightMotor.setPower(0);
                     break;
@@ -420,52 +628,124 @@ public class AutoRobotFunctions {
         }
     }
 
-    //PID controller for following a line
+    //PID controller for following a line, only the BUTTON stop condition is used
     public void PIDLineFollow(int threshHoldLow, int threshHoldHigh,
                               double driveSpeed, double minOutputVal,
                               double maxOutputVal, double tolerance,
                               StopConditions stopConditions, LineSide lineSide) {
+        PIDLineFollow(threshHoldLow, threshHoldHigh, driveSpeed, minOutputVal, maxOutputVal,
+                tolerance, stopConditions == StopConditions.BUTTON ?
+                        StopCondition.buttonPressed() : StopCondition.never(), lineSide);
+    }
+
+    public void PIDLineFollow(int threshHoldLow, int threshHoldHigh,
+                              double driveSpeed, double minOutputVal,
+                              double maxOutputVal, double tolerance,
+                              StopCondition stopCondition, LineSide lineSide) {
         ColorPIDController pidController = new ColorPIDController(this.color,
                 threshHoldLow, threshHoldHigh, TAG + ":Line Follow");
         pidController.setPID(colorKP, colorKI, colorKD);
+        pidController.setOutputRange(minOutputVal - maxOutputVal, maxOutputVal - minOutputVal);
+        if (colorSchedule != null) {
+            pidController.setGainSchedule(colorSchedule, robot.batVolt);
+            pidController.setCommandedSpeed(driveSpeed);
+        }
         pidController.setTolerance(tolerance);
         pidController.enable();
 
+        //There is no distance to the end of the line, only the deadline and stalls are checked
+        MotionWatchdog watchdog = new MotionWatchdog(LINE_FOLLOW_TIMEOUT_MS)
+                .setStallDetection(STALL_POWER, STALL_COUNTS, STALL_DEGREES, STALL_MS);
+        lastMotionResult = MotionResult.STOPPED;
+
+        //Each spin only reads what the stop condition needs. The encoder and heading for the
+        //watchdog, and the line sensor for the recorder, are read with each new PID output.
+        SensorFrame frame = new SensorFrame(robot);
+        int sensors = stopCondition.getSensors();
+        int tickSensors = SensorFrame.ENCODER | SensorFrame.HEADING;
+        if (recorder != null) tickSensors |= SensorFrame.COLOR;
+        stopCondition.reset();
+        PidSnapshot pidState = new PidSnapshot();
+
+        TelemetryStage display = new TelemetryStage(currentOpMode.telemetry, telemetryRateHz);
+        int outputSlot = display.addSlot("Output");
+        display.start();
+
         try {
-            //Sleep to allow the pid controller to calculate a first value
-            Thread.sleep(100);
+            //Wait for the pid controller to calculate a first value
+            pidController.waitForOutput(PID_START_TIMEOUT_MS);
+            watchdog.start(ControlClock.nanoTime());
+            frame.read(tickSensors);
+            double leftSpeed = 0;
+            double rightSpeed = 0;
             while (currentOpMode.opModeIsActive()) {
-                if (stopConditions == StopConditions.BUTTON && touchSensor.isPressed()) {
+                frame.read(sensors);
+                MotionResult stop = stopCondition.check(frame);
+                if (stop != MotionResult.RUNNING) {
                     leftMotor.setPower(0);
                     rightMotor.setPower(0);
+                    lastMotionResult = stop;
                     break;
                 }
-                double output = pidController.getOutput();
-                currentOpMode.telemetry.addData("Output", output);
-                if (lineSide == LineSide.LEFT) {
-                    leftMotor.setPower(limit((driveSpeed - output), minOutputVal, maxOutputVal));
-                    rightMotor.setPower(limit((driveSpeed + output), minOutputVal, maxOutputVal));
-                } else {
-                    leftMotor.setPower(limit((driveSpeed + output), minOutputVal, maxOutputVal));
-                    rightMotor.setPower(limit((driveSpeed - output), minOutputVal, maxOutputVal));
+
+                //Only touch the motors when the controller has calculated something new
+                if (pidController.getSnapshot(pidState)) {
+                    frame.read(tickSensors);
+                    double output = pidState.isOnTarget ? 0 : pidState.output;
+                    display.set(outputSlot, output);
+                    if (lineSide == LineSide.LEFT) {
+                        leftSpeed = limit((driveSpeed - output), minOutputVal, maxOutputVal);
+                        rightSpeed = limit((driveSpeed + output), minOutputVal, maxOutputVal);
+                    } else {
+                        leftSpeed = limit((driveSpeed + output), minOutputVal, maxOutputVal);
+                        rightSpeed = limit((driveSpeed - output), minOutputVal, maxOutputVal);
+                    }
+                    leftMotor.setPower(leftSpeed);
+                    rightMotor.setPower(rightSpeed);
+
+                    if (recorder != null) {
+                        recorder.timestamp = frame.timestamp;
+                        recorder.rightPosition = frame.position;
+                        recorder.heading = frame.heading;
+                        recorder.alpha = frame.alpha;
+                        recorder.setpoint = pidController.getSetpoint();
+                        recorder.setPid(pidState);
+                        recorder.output = output;
+                        recorder.leftPower = leftSpeed;
+                        recorder.rightPower = rightSpeed;
+                        recorder.commit(FlightRecorder.LINE_FOLLOW);
+                    }
+                }
+
+                //Following the line turns the robot, so either moving or turning is progress
+                MotionResult motion = watchdog.check(frame.position, frame.heading,
+                        Math.max(Math.abs(leftSpeed), Math.abs(rightSpeed)), 0, frame.timestamp);
+                if (motion != MotionResult.RUNNING) {
+                    leftMotor.setPower(0);
+                    rightMotor.setPower(0);
+                    Log.i(TAG + ":Line Follow", "Line follow aborted: " + motion);
+                    lastMotionResult = motion;
+                    break;
                 }
-                currentOpMode.telemetry.update();
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } finally {
             pidController.disable();
+            display.stop();
         }
     }
 
     //Drive to an encoder limit
     public void runWithEncoders(int targetPosition, double motorPower) {
         boolean rampComplete = false;
-        ElapsedTime rampTime = new ElapsedTime();
-        ElapsedTime logRate = new ElapsedTime();
+        long rampStart = ControlClock.nanoTime();
+        long lastLogTime = ControlClock.nanoTime();
         double rampUpMul = motorPower / 500;
         double rampDownMul = motorPower / 30;
-        double workingForwardSpeed = 0;
+        double workingForwardSpeed = motorPower;
+        int lastLeftPosition = Integer.MIN_VALUE;
+        int lastPosition = Integer.MIN_VALUE;
 
         robot.stopAndClearEncoders();
         robot.enableEncoders(true);
@@ -476,13 +756,24 @@ public class AutoRobotFunctions {
         leftMotor.setTargetPosition(targetPosition);
         rightMotor.setTargetPosition(targetPosition);
 
-        rampTime.reset();
+        MotionWatchdog watchdog = new MotionWatchdog(ENCODER_TIMEOUT_MS)
+                .setStallDetection(STALL_POWER, STALL_COUNTS, 0, STALL_MS)
+                .setProgressDetection(PROGRESS_COUNTS, PROGRESS_WINDOW_MS);
+        lastMotionResult = MotionResult.STOPPED;
+
+        TelemetryStage display = new TelemetryStage(currentOpMode.telemetry, telemetryRateHz);
+        int leftSlot = display.addSlot("ENC left: ");
+        int rightSlot = display.addSlot("ENC right: ");
+        display.start();
+
+        rampStart = ControlClock.nanoTime();
         leftMotor.setPower(motorPower);
         rightMotor.setPower(motorPower);
+        watchdog.start(ControlClock.nanoTime());
         while (currentOpMode.opModeIsActive() && leftMotor.isBusy() && rightMotor.isBusy()) {
             //Ramp the motor to start with
-            if (!rampComplete && rampTime.milliseconds() <= 30) {
-                int error = (int) rampTime.milliseconds();
+            if (!rampComplete && ControlClock.millisecondsSince(rampStart) <= 30) {
+                int error = (int) ControlClock.millisecondsSince(rampStart);
                 workingForwardSpeed = error * rampUpMul;
                 if (workingForwardSpeed >= motorPower) {
                     workingForwardSpeed = motorPower;
@@ -491,9 +782,13 @@ public class AutoRobotFunctions {
                 leftMotor.setPower(workingForwardSpeed);
                 rightMotor.setPower(workingForwardSpeed);
             }
+            //Read the encoders once for the whole tick
+            int leftPosition = leftMotor.getCurrentPosition();
+            int position = rightMotor.getCurrentPosition();
+
             //Ramp down as the robot approaches the target.
-            if (rampComplete && rightMotor.getCurrentPosition() >= (targetPosition - 30)) {
-                int error = (targetPosition - rightMotor.getCurrentPosition()) - 30;
+            if (rampComplete && position >= (targetPosition - 30)) {
+                int error = (targetPosition - position) - 30;
                 workingForwardSpeed = motorPower - error * rampDownMul;
                 if (workingForwardSpeed < 0.1) {
                     workingForwardSpeed = 0.1;
@@ -501,17 +796,39 @@ public class AutoRobotFunctions {
                 leftMotor.setPower(workingForwardSpeed);
                 rightMotor.setPower(workingForwardSpeed);
             }
-            currentOpMode.telemetry.addData("ENC left: ", leftMotor.getCurrentPosition());
-            currentOpMode.telemetry.addData("ENC right: ", rightMotor.getCurrentPosition());
-            currentOpMode.telemetry.update();
+            display.set(leftSlot, leftPosition);
+            display.set(rightSlot, position);
+            //One record per new encoder reading
+            if (recorder != null && (leftPosition != lastLeftPosition ||
+                    position != lastPosition)) {
+                lastLeftPosition = leftPosition;
+                lastPosition = position;
+                recorder.timestamp = ControlClock.nanoTime();
+                recorder.leftPosition = leftPosition;
+                recorder.rightPosition = position;
+                recorder.setpoint = targetPosition;
+                recorder.leftPower = workingForwardSpeed;
+                recorder.rightPower = workingForwardSpeed;
+                recorder.commit(FlightRecorder.ENCODER);
+            }
+
+            if (ControlClock.millisecondsSince(lastLogTime) >= 500) {
+                lastLogTime = ControlClock.nanoTime();
+                eventLog.log(encoderEvent, workingForwardSpeed, leftPosition, position);
+            }
 
-            if (logRate.milliseconds() >= 500) {
-                logRate.reset();
-                Log.i(TAG + ":Encoder", String.format("SPEED: %f | ENC LEFT: %d | ENC RIGHT: %d",
-                        workingForwardSpeed, leftMotor.getCurrentPosition(),
-                        rightMotor.getCurrentPosition()));
+            MotionResult motion = watchdog.check(position, 0, workingForwardSpeed,
+                    targetPosition - position, ControlClock.nanoTime());
+            if (motion != MotionResult.RUNNING) {
+                Log.i(TAG + ":Encoder", "Encoder drive aborted: " + motion);
+                lastMotionResult = motion;
+                break;
             }
         }
+        display.stop();
+        if (lastMotionResult == MotionResult.STOPPED && currentOpMode.opModeIsActive()) {
+            lastMotionResult = MotionResult.COMPLETED;
+        }
         leftMotor.setPower(0);
         rightMotor.setPower(0);
 
@@ -521,15 +838,24 @@ public class AutoRobotFunctions {
 
     //Push the proper color button for the team the robot is on
     public void pushButton(Team team) {
+        //Wait for the next frame so the color is read after the robot stopped, and take one
+        //frame so red and blue are compared from the same reading
+        ColorSample sample = new ColorSample();
         try {
-            if (team == Team.RED) {
-                currentOpMode.telemetry.addData("Blue Color", beaconColor.blueColor());
-                currentOpMode.telemetry.addData("Red Color", beaconColor.redColor());
+            sample.sequence = beaconColor.getSampleCount();
+            if (!beaconColor.waitForNewSample(sample, BEACON_SAMPLE_TIMEOUT_MS)) {
+                Log.i(TAG, "No new beacon color frame, using the last one");
+                beaconColor.getSample(sample);
+            }
+            currentOpMode.telemetry.addData("Blue Color", sample.blue);
+            currentOpMode.telemetry.addData("Red Color", sample.red);
 
-                Log.i(TAG, String.format("Blue Color: %d", beaconColor.blueColor()));
-                Log.i(TAG, String.format("Red Color: %d", beaconColor.redColor()));
+            Log.i(TAG, String.format("Blue Color: %d", sample.blue));
+            Log.i(TAG, String.format("Red Color: %d", sample.red));
+            Log.i(TAG, String.format("Sample: %d, age %.1f ms", sample.sequence, sample.ageMs()));
 
-                if (beaconColor.blueColor() > beaconColor.redColor()) {
+            if (team == Team.RED) {
+                if (sample.blue > sample.red) {
                     currentOpMode.telemetry.addData("Team: RED", "sees BLUE, pushing opposite");
                     Log.i(TAG, "Team: RED, " + "sees BLUE, pushing opposite");
 
@@ -541,13 +867,7 @@ public class AutoRobotFunctions {
                     robot.pusherLeft.setPosition(0.9);
                 }
             } else {
-                currentOpMode.telemetry.addData("Blue Color", beaconColor.blueColor());
-                currentOpMode.telemetry.addData("Red Color", beaconColor.redColor());
-
-                Log.i(TAG, String.format("Blue Color: %d", beaconColor.blueColor()));
-                Log.i(TAG, String.format("Red Color: %d", beaconColor.redColor()));
-
-                if (beaconColor.blueColor() > beaconColor.redColor()) {
+                if (sample.blue > sample.red) {
                     currentOpMode.telemetry.addData("BLUE", "sees BLUE, pushing");
                     Log.i(TAG, "Team: BLUE, " + "sees BLUE, pushing");
 
@@ -560,7 +880,8 @@ public class AutoRobotFunctions {
                 }
             }
             currentOpMode.telemetry.update();
-            Thread.sleep(500);
+            //Give the pusher servo time to press the button
+            ControlClock.sleep(500);
             robot.pusherRight.setPosition(0.9);
             robot.pusherLeft.setPosition(0.1);
         } catch (InterruptedException e) {
@@ -568,6 +889,17 @@ public class AutoRobotFunctions {
         }
     }
 
+    //Rate the motion loops send telemetry at, the loops themselves run as fast as the sensors
+    public void setTelemetryRate(double rateHz) {
+        telemetryRateHz = rateHz;
+        rotateDisplay = null;
+    }
+
+    //How the last MRRotate, MRDriveStraight, PIDLineFollow or runWithEncoders ended
+    public MotionResult getLastMotionResult() {
+        return lastMotionResult;
+    }
+
     //gyro z axis reset function
     public void resetGyroAngle() {
         gyro.resetZAxisIntegrator();
@@ -588,6 +920,16 @@ public class AutoRobotFunctions {
         if (navXDevice != null) {
             navXDevice.close();
         }
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+        }
+    }
+
+    //Record every tick of the motion primitives to Documents/<name>.bin until close()
+    public void startFlightRecorder(String name) {
+        if (recorder != null) recorder.close();
+        recorder = FlightRecorder.open(name, FLIGHT_RECORDER_CAPACITY);
     }
 
     //Set the PID values for the NavX sensor
@@ -618,12 +960,56 @@ public class AutoRobotFunctions {
         this.gyroRotateKD = Kd;
     }
 
+    /*
+     * Have MRRotate follow a trapezoidal heading profile with a max velocity in degrees/s and a
+     * max acceleration in degrees/s^2 instead of jumping to the target. kv and ka are the motor
+     * output fed forward per degree/s and per degree/s^2. A max velocity of 0 turns it off.
+     */
+    public void setGyroRotateProfile(double maxVelocity, double maxAcceleration, double kv,
+                                     double ka) {
+        this.rotateMaxVelocity = maxVelocity;
+        this.rotateMaxAcceleration = maxAcceleration;
+        this.rotateKV = kv;
+        this.rotateKA = ka;
+    }
+
+    /*
+     * Measured encoder counts per second at full power and seconds to get up to the drive speed.
+     * MRDriveStraight only uses the distance profile once these are set.
+     */
+    public void setDriveProfile(double countsPerSecond, double accelerationTime) {
+        this.driveCountsPerSecond = countsPerSecond;
+        this.driveAccelerationTime = accelerationTime;
+    }
+
     public void setGyroDrivePID(double Kp, double Ki, double Kd) {
         this.gyroDriveKP = Kp;
         this.gyroDriveKI = Ki;
         this.gyroDriveKD = Kd;
     }
 
+    //Run the gyro PID once per new gyro sample when the sample monitor is running
+    private void enablePID(GyroPIDController pidController) {
+        if (gyroMonitor != null) {
+            pidController.enable(gyroMonitor);
+        } else {
+            pidController.enable();
+        }
+    }
+
+    private void logPIDTiming(String tag, GyroPIDController pidController) {
+        ControlScheduler.ControlLoop loop = pidController.getControlLoop();
+        if (loop != null) {
+            Log.i(tag, String.format("Loop ticks: %d | late: %d | jitter: %.2f/%.2f ms",
+                    loop.getTickCount(), loop.getLateTickCount(), loop.getMeanJitterMs(),
+                    loop.getMaxJitterMs()));
+        } else if (gyroMonitor != null) {
+            Log.i(tag, String.format("Gyro samples: %d | duplicate: %d | skipped: %d | %.1f Hz",
+                    gyroMonitor.getSampleCount(), gyroMonitor.getDuplicateCount(),
+                    gyroMonitor.getSkippedReadCount(), gyroMonitor.getSampleRateHz()));
+        }
+    }
+
     //Limit function
     private double limit(double a, double minOutputVal, double maxOutputVal) {
         return Math.min(Math.max(a, minOutputVal), maxOutputVal);
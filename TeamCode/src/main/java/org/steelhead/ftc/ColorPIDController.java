@@ -1,9 +1,7 @@
 package org.steelhead.ftc;
 
-import android.util.Log;
-
 import com.qualcomm.robotcore.hardware.ColorSensor;
-import com.qualcomm.robotcore.util.ElapsedTime;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
 
 /**
  * Created by Alec Matthews on 10/23/2016.
@@ -12,94 +10,122 @@ import com.qualcomm.robotcore.util.ElapsedTime;
 
 public class ColorPIDController {
     //initialize values
-    private Thread pidThread;
+    private static final long LOOP_PERIOD_MS = 17;
+
+    private final Runnable pidLoop;
+    private ControlScheduler.ControlLoop controlLoop = null;
     private int offsetValue;
 
     @Deprecated
     private boolean isOutputAvailable = false;
 
     private volatile double output = 0;
-    private boolean isActive = true;
-    private double kp;
-    private double ki;
-    private double kd;
-    private double tolerance;
+    private final PidCore pid = new PidCore(0, 0, 0);
 
-    private ElapsedTime logRate = new ElapsedTime();
+    //Gain schedule lookup and the published snapshot of each calculation
+    private final PidState state = new PidState(pid);
+    private volatile double tolerance;
+
+    private long lastLogTime = ControlClock.nanoTime();
+    private final EventLog eventLog = EventLog.getInstance();
+    private final int outputEvent;
     private String TAG;
 
     public ColorPIDController(final ColorSensor colorSensor, int thresholdLow, int thresholdHigh,
                               final String TAG) {
         this.TAG = TAG + ":color sensor";
+        outputEvent = eventLog.register(this.TAG, "BRIGHTNESS: %f | OUTPUT: %f | OFFSET: %d");
         this.offsetValue = (thresholdLow + thresholdHigh)/2;
 
-        //Setup the separate thread for calculating the values
-        //This is in a separate thread so it doesn't slow down the main thread.
-        pidThread = new Thread(new Runnable() {
+        //The integral is cleared when the sign changes, the error is 0 or the error is too big
+        pid.setIntegralZone(1);
+
+        //Setup the loop for calculating the values
+        //It runs on the shared control scheduler so it doesn't slow down the main thread.
+        pidLoop = new Runnable() {
             @Override
             public void run() {
                 //Calculate the PID output
                 double error;
                 double average;
-                double lastError = 0;
-                double integral = 0;
-                double derivative;
-                while (isActive) {
-                    average = (colorSensor.red() + colorSensor.green() + colorSensor.blue())/3;
-                    error = average - offsetValue;
-                    /*
-                    Calculate the integral term. We are clamping it when the sign changes
-                    when the error is 0 or when the error value is too big.
-                    */
-                    integral = integral + (error*0.017);
-                    if (lastError > 0 && error < 0) {
-                        integral = 0;
-                    }else if (lastError < 0 && error > 0) {
-                        integral = 0;
-                    }else if (error == 0) {
-                        integral = 0;
-                    }
-                    if (Math.abs(error) > 1) {
-                        integral = 0;
-                    }
-
-                    derivative = ((error - lastError)/0.017);
-                    lastError = error;
-
-                    output = (kp * error) + (ki * integral) + (kd * derivative);
-
-                    if (logRate.milliseconds() >= 500) {
-                        logRate.reset();
-                        Log.i(TAG, String.format("BRIGHTNESS: %f | OUTPUT: %f | OFFSET: %d",
-                                average, output, offsetValue));
-                    }
-                    //Wait for the sensor to gather new values
-                    //and slow down the loop so the integral term doesn't get too big too fast
-                    try {
-                        Thread.sleep(17);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+                state.scheduleGains();
+                average = (colorSensor.red() + colorSensor.green() + colorSensor.blue())/3;
+                error = average - offsetValue;
+                long time = ControlClock.nanoTime();
+                output = pid.update(error, time);
+
+                state.publish(output, error, Math.abs(output) < tolerance, time);
+
+                if (ControlClock.millisecondsSince(lastLogTime) >= 500) {
+                    lastLogTime = ControlClock.nanoTime();
+                    eventLog.log(outputEvent, average, output, offsetValue);
                 }
             }
-        });
+        };
     }
-    //This function is used to set the PID values. It must be run before the thread is started
+
+    //This function is used to set the PID values. It must be run before the loop is started
     public void setPID(double kp, double ki, double kd) {
-        this.kp = kp;
-        this.ki = ki;
-        this.kd = kd;
+        pid.setPID(kp, ki, kd);
+    }
+
+    //Look the gains up in schedule every calculation instead of using the ones from setPID
+    public void setGainSchedule(GainSchedule schedule, VoltageSensor batVolt) {
+        state.setGainSchedule(schedule, batVolt);
+    }
+
+    //Speed used for the gain schedule lookup, e.g. the drive speed
+    public void setCommandedSpeed(double speed) {
+        state.setCommandedSpeed(speed);
+    }
+
+    //Time constant of the derivative filter in seconds, the filter is off until this is set
+    public void setDerivativeFilter(double timeConstant) {
+        pid.setDerivativeFilter(timeConstant);
     }
-    //Start the thread
+
+    //Limits of the output, normally the motor output limits so the integral doesn't wind up
+    //while the motors are saturated
+    public void setOutputRange(double minOutput, double maxOutput) {
+        pid.setOutputRange(minOutput, maxOutput);
+    }
+
+    //Largest change of the output per second, 0 turns the limit off
+    public void setSlewRate(double slewRate) {
+        pid.setSlewRate(slewRate);
+    }
+
+    //Start the loop. The period is slow enough that the sensor has new values
+    //and the integral term doesn't get too big too fast
     public void enable() {
-        pidThread.start();
-        logRate.reset();
+        if (controlLoop != null) return;
+        lastLogTime = ControlClock.nanoTime();
+        controlLoop = ControlScheduler.getInstance().schedule(pidLoop, LOOP_PERIOD_MS);
     }
 
-    //Stop the thread
+    //Stop the loop
     public void disable() {
-        isActive = false;
+        if (controlLoop != null) controlLoop.cancel();
+    }
+
+    //Timing of the loop on the control scheduler, null until the controller is enabled
+    public ControlScheduler.ControlLoop getControlLoop() {
+        return controlLoop;
     }
+
+    //Block until the controller has calculated an output, returns false on timeout
+    public boolean waitForOutput(int timeoutMs) throws InterruptedException {
+        return state.waitForOutput(timeoutMs);
+    }
+
+    /*
+     * Copy the latest calculation into snapshot. Returns true if it is a newer iteration than the
+     * one the snapshot held. isOnTarget is set when the output is inside the tolerance.
+     */
+    public boolean getSnapshot(PidSnapshot snapshot) {
+        return state.getSnapshot(snapshot);
+    }
+
     @Deprecated
     public boolean isOutputAvailable() {
         return isOutputAvailable;
@@ -114,4 +140,8 @@ public class ColorPIDController {
     public void setTolerance(double tolerance) {
         this.tolerance = tolerance;
     }
+    //Brightness the controller steers to, halfway between the thresholds
+    public int getSetpoint() {
+        return offsetValue;
+    }
 }
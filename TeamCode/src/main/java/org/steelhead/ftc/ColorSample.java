@@ -0,0 +1,29 @@
+package org.steelhead.ftc;
+
+/**
+ * One CRGB frame from the Adafruit color sensor. The sensor fills in a caller owned sample so
+ * reading it doesn't allocate; all four channels always come from the same frame.
+ */
+
+public class ColorSample {
+    public int  clear;
+    public int  red;
+    public int  green;
+    public int  blue;
+    public long timestamp;  //ControlClock.nanoTime() when the frame arrived
+    public long sequence;   //Counts up by one per frame, 0 = no frame yet
+
+    public void copyFrom(ColorSample other) {
+        clear       = other.clear;
+        red         = other.red;
+        green       = other.green;
+        blue        = other.blue;
+        timestamp   = other.timestamp;
+        sequence    = other.sequence;
+    }
+
+    //Age of the frame in milliseconds
+    public double ageMs() {
+        return (ControlClock.nanoTime() - timestamp) / 1e6;
+    }
+}
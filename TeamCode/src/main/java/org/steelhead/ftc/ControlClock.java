@@ -0,0 +1,73 @@
+package org.steelhead.ftc;
+
+/**
+ * Time source of the control code. On the robot it is System.nanoTime(). The simulator can run
+ * it faster than the wall clock: nanoTime() then goes rate times as fast, and sleep(), the
+ * output waits and the ControlScheduler periods get shorter to match, so every loop still runs
+ * at its usual rate in control time and a whole autonomous run takes a fraction of the time.
+ *
+ * The rate has to be set before the control loops are scheduled, loops that are already running
+ * keep their wall clock period.
+ */
+
+public final class ControlClock {
+    //Control time is origin + (wall time - wallOrigin) * rate, swapped as a whole so a reader
+    //never sees half of a rate change
+    private static final class Scale {
+        final double rate;
+        final long wallOrigin;
+        final long origin;
+
+        Scale(double rate, long wallOrigin, long origin) {
+            this.rate = rate;
+            this.wallOrigin = wallOrigin;
+            this.origin = origin;
+        }
+    }
+
+    private static volatile Scale scale = new Scale(1, 0, 0);
+
+    private ControlClock() {
+    }
+
+    public static long nanoTime() {
+        return at(scale, System.nanoTime());
+    }
+
+    private static long at(Scale s, long wall) {
+        if (s.rate == 1) return s.origin + (wall - s.wallOrigin);
+        return s.origin + (long) ((wall - s.wallOrigin) * s.rate);
+    }
+
+    //Control time passed since startTime, milliseconds
+    public static double millisecondsSince(long startTime) {
+        return (nanoTime() - startTime) / 1e6;
+    }
+
+    //Wall clock nanoseconds it takes for nanos of control time to pass
+    public static long toWallNanos(long nanos) {
+        return (long) (nanos / scale.rate);
+    }
+
+    //Wall clock milliseconds for ms of control time, at least 1 so a wait never turns into
+    //wait(0), which waits forever
+    public static long toWallMillis(long ms) {
+        return Math.max(1, (long) Math.ceil(ms / scale.rate));
+    }
+
+    public static void sleep(long ms) throws InterruptedException {
+        long nanos = toWallNanos(ms * 1000000L);
+        Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+    }
+
+    public static double getRate() {
+        return scale.rate;
+    }
+
+    //Only for the simulator, the control time carries on from where it is without a jump
+    static synchronized void setRate(double rate) {
+        if (rate <= 0) throw new IllegalArgumentException("Clock rate must be positive");
+        long wall = System.nanoTime();
+        scale = new Scale(rate, wall, at(scale, wall));
+    }
+}
@@ -0,0 +1,150 @@
+package org.steelhead.ftc;
+
+import android.util.Log;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared scheduler for the control loops. The loops run at a fixed rate on a small pool of
+ * daemon threads that live for the whole app, so starting a motion doesn't create a thread and
+ * a late tick doesn't push every later tick back. Each loop measures how far its ticks start
+ * from the ideal fixed rate schedule.
+ *
+ * Work that only has to keep up, like telemetry and log writers, goes on a separate low priority
+ * background thread so it can never hold up a control tick.
+ */
+
+public class ControlScheduler {
+    private static final String TAG = "ControlScheduler";
+    private static final int THREAD_COUNT = 2;
+
+    private static ControlScheduler instance = null;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor background;
+
+    public static synchronized ControlScheduler getInstance() {
+        if (instance == null) {
+            instance = new ControlScheduler();
+        }
+        return instance;
+    }
+
+    private ControlScheduler() {
+        executor = new ScheduledThreadPoolExecutor(THREAD_COUNT, new ThreadFactory() {
+            private int threadCount = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "control-loop-" + threadCount++);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MAX_PRIORITY);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+
+        background = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "control-background");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        background.setRemoveOnCancelPolicy(true);
+    }
+
+    //Run tick every periodMs until the returned loop is cancelled, the first tick runs right away
+    public ControlLoop schedule(Runnable tick, long periodMs) {
+        ControlLoop loop = new ControlLoop(tick, periodMs);
+        loop.future = executor.scheduleAtFixedRate(loop, 0, loop.wallPeriodNs,
+                TimeUnit.NANOSECONDS);
+        return loop;
+    }
+
+    //Same as schedule() but on the low priority background thread
+    public ControlLoop scheduleBackground(Runnable tick, long periodMs) {
+        ControlLoop loop = new ControlLoop(tick, periodMs);
+        loop.future = background.scheduleAtFixedRate(loop, 0, loop.wallPeriodNs,
+                TimeUnit.NANOSECONDS);
+        return loop;
+    }
+
+    public static class ControlLoop implements Runnable {
+        private final Runnable tick;
+        private final long periodNs;
+        private final long wallPeriodNs;
+        private volatile ScheduledFuture<?> future;
+
+        //Jitter is how late a tick started compared to start + n * period
+        private long startTime = 0;
+        private volatile long tickCount = 0;
+        private volatile long lateTickCount = 0;
+        private volatile long jitterSum = 0;
+        private volatile long jitterMax = 0;
+
+        private ControlLoop(Runnable tick, long periodMs) {
+            this.tick = tick;
+            this.periodNs = periodMs * 1000000L;
+            //The period is in control time, which runs faster in the simulator
+            wallPeriodNs = Math.max(1, ControlClock.toWallNanos(periodNs));
+        }
+
+        @Override
+        public void run() {
+            long now = ControlClock.nanoTime();
+            if (tickCount == 0) {
+                startTime = now;
+            } else {
+                long jitter = now - (startTime + tickCount * periodNs);
+                if (jitter < 0) jitter = 0;
+                jitterSum += jitter;
+                if (jitter > jitterMax) jitterMax = jitter;
+                if (jitter >= periodNs) lateTickCount++;
+            }
+            tickCount++;
+
+            //An exception would silently stop the fixed rate task, so log it and keep going
+            try {
+                tick.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Control loop tick failed", e);
+            }
+        }
+
+        //Stop the loop, a tick that is already running is allowed to finish
+        public void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f != null) f.cancel(false);
+        }
+
+        public boolean isCancelled() {
+            ScheduledFuture<?> f = future;
+            return f != null && f.isCancelled();
+        }
+
+        public long getTickCount() {
+            return tickCount;
+        }
+
+        //Ticks that started a full period or more behind schedule
+        public long getLateTickCount() {
+            return lateTickCount;
+        }
+
+        public double getMeanJitterMs() {
+            long count = tickCount - 1;
+            if (count <= 0) return 0;
+            return (jitterSum / (double) count) / 1e6;
+        }
+
+        public double getMaxJitterMs() {
+            return jitterMax / 1e6;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.steelhead.ftc;
+
+import android.os.Environment;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * CSV logger that can be used from loop() at 100+ Hz. A row is built from typed values with
+ * add() and finished with endRow(); the characters go into a reusable buffer without any
+ * formatting objects. Full buffers, or the current one once FLUSH_PERIOD_MS has passed, are
+ * handed to the background thread which writes them to the file, and empty buffers come back to
+ * be reused. The file is started over as name_2.csv, name_3.csv and so on when it gets to the
+ * size limit, each with the header.
+ *
+ *      DataLogger logger = robot.openDataLogger("shooter",
+ *              DataLogger.Column.number("Time(min)", 6), DataLogger.Column.number("Volts", 2));
+ *      logger.add(runtime.seconds() / 60).add(batVolt.getVoltage()).endRow();
+ *
+ * Rows are added from one thread. Loggers opened through HardwareSteelheadMainBot are closed by
+ * its close(), so the rows are written even if the op mode is stopped early.
+ */
+
+public class DataLogger {
+    private static final String TAG = "DataLogger";
+    private static final int BUFFER_SIZE = 8192;        //Characters
+    private static final int BUFFER_COUNT = 4;
+    private static final long FLUSH_PERIOD_MS = 250;
+    private static final long DEFAULT_MAX_FILE_BYTES = 4 * 1024 * 1024;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000,
+            10000000, 100000000};
+
+    public static class Column {
+        public final String name;
+        public final int decimals;      //-1 for text
+
+        private Column(String name, int decimals) {
+            this.name = name;
+            this.decimals = decimals;
+        }
+
+        //A number written with a fixed number of decimals, at most 8
+        public static Column number(String name, int decimals) {
+            return new Column(name, Math.max(0, Math.min(decimals, 8)));
+        }
+
+        public static Column integer(String name) {
+            return new Column(name, 0);
+        }
+
+        public static Column text(String name) {
+            return new Column(name, -1);
+        }
+    }
+
+    private static class Buffer {
+        final char[] chars = new char[BUFFER_SIZE];
+        int length = 0;
+    }
+
+    private final File directory;
+    private final String name;
+    private final Column[] columns;
+    private final long maxFileBytes;
+
+    //Producer side, only used by the thread adding rows
+    private char[] row = new char[256];
+    private int rowLength = 0;
+    private int column = 0;
+    private Buffer current;
+    private long lastHandOff = System.nanoTime();
+
+    private final ArrayBlockingQueue<Buffer> freeBuffers =
+            new ArrayBlockingQueue<Buffer>(BUFFER_COUNT);
+    private final ArrayBlockingQueue<Buffer> fullBuffers =
+            new ArrayBlockingQueue<Buffer>(BUFFER_COUNT);
+    private final ControlScheduler.ControlLoop writeLoop;
+
+    //Writer side, only used under the lock
+    private Writer writer = null;
+    private int fileNumber = 0;
+    private long fileBytes = 0;
+    private boolean isClosed = false;
+
+    private volatile long rowCount = 0;
+    private volatile long droppedRowCount = 0;
+
+    public DataLogger(File directory, String name, long maxFileBytes, Column... columns)
+            throws IOException {
+        if (columns.length == 0) throw new IllegalArgumentException("A log needs columns");
+        this.directory = directory;
+        this.name = name;
+        this.columns = columns.clone();
+        this.maxFileBytes = maxFileBytes;
+        for (int i = 0; i < BUFFER_COUNT - 1; i++) {
+            freeBuffers.add(new Buffer());
+        }
+        current = new Buffer();
+        openFile();
+
+        writeLoop = ControlScheduler.getInstance().scheduleBackground(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, FLUSH_PERIOD_MS);
+    }
+
+    //A logger writing to Documents/<name>.csv, null if the storage isn't available
+    public static DataLogger open(String name, Column... columns) {
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) return null;
+        File directory = Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOCUMENTS);
+        try {
+            return new DataLogger(directory, name, DEFAULT_MAX_FILE_BYTES, columns);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open " + name, e);
+            return null;
+        }
+    }
+
+    public DataLogger add(double value) {
+        separator();
+        int decimals = columns[column].decimals;
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e9) {
+            appendText(Double.toString(value));
+        } else {
+            if (decimals < 0) decimals = 6;
+            long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[decimals]);
+            if (value < 0 && scaled != 0) appendChar('-');
+            appendDigits(scaled / POWERS_OF_TEN[decimals], 1);
+            if (decimals > 0) {
+                appendChar('.');
+                appendDigits(scaled % POWERS_OF_TEN[decimals], decimals);
+            }
+        }
+        column++;
+        return this;
+    }
+
+    public DataLogger add(long value) {
+        separator();
+        if (value < 0) {
+            appendChar('-');
+            if (value == Long.MIN_VALUE) {
+                appendText("9223372036854775808");
+                column++;
+                return this;
+            }
+            value = -value;
+        }
+        appendDigits(value, 1);
+        column++;
+        return this;
+    }
+
+    //Text is quoted if it has a comma, quote or line break in it
+    public DataLogger add(String text) {
+        separator();
+        boolean isQuoted = false;
+        for (int i = 0; i < text.length() && !isQuoted; i++) {
+            char c = text.charAt(i);
+            isQuoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (isQuoted) {
+            appendChar('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') appendChar('"');
+                appendChar(c);
+            }
+            appendChar('"');
+        } else {
+            appendText(text);
+        }
+        column++;
+        return this;
+    }
+
+    //Finish the row, missing columns are left empty
+    public void endRow() {
+        while (column < columns.length) {
+            separator();
+            column++;
+        }
+        appendChar('\n');
+
+        if (current != null && current.length + rowLength > BUFFER_SIZE) handOff();
+        if (current == null) current = freeBuffers.poll();
+        if (current == null || rowLength > BUFFER_SIZE) {
+            droppedRowCount++;
+        } else {
+            System.arraycopy(row, 0, current.chars, current.length, rowLength);
+            current.length += rowLength;
+            rowCount++;
+            if (System.nanoTime() - lastHandOff > FLUSH_PERIOD_MS * 1000000L) handOff();
+        }
+        rowLength = 0;
+        column = 0;
+    }
+
+    //Give the current buffer to the writer and take an empty one, null if there is none
+    private void handOff() {
+        lastHandOff = System.nanoTime();
+        if (current.length == 0) return;
+        fullBuffers.offer(current);
+        current = freeBuffers.poll();
+    }
+
+    private void separator() {
+        if (column >= columns.length) {
+            throw new IllegalStateException("Row has more than " + columns.length + " columns");
+        }
+        if (column > 0) appendChar(',');
+    }
+
+    private void appendChar(char c) {
+        if (rowLength == row.length) row = Arrays.copyOf(row, row.length * 2);
+        row[rowLength++] = c;
+    }
+
+    private void appendText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            appendChar(text.charAt(i));
+        }
+    }
+
+    //Digits of a positive number, zero padded to at least minDigits
+    private void appendDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) digits++;
+        for (int i = digits; i < minDigits; i++) appendChar('0');
+        if (rowLength + digits > row.length) row = Arrays.copyOf(row, row.length * 2 + digits);
+        for (int i = rowLength + digits - 1; i >= rowLength; i--) {
+            row[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        rowLength += digits;
+    }
+
+    //Write the full buffers, on the background thread or from close(). The batch is flushed to
+    //the file so it is there even if the app is killed before close().
+    private synchronized void write() {
+        Buffer buffer;
+        boolean isWritten = false;
+        while ((buffer = fullBuffers.poll()) != null) {
+            if (!isClosed && writer != null) {
+                try {
+                    if (fileBytes + buffer.length > maxFileBytes && fileBytes > 0) {
+                        writer.close();
+                        openFile();
+                    }
+                    writer.write(buffer.chars, 0, buffer.length);
+                    fileBytes += buffer.length;
+                    isWritten = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Write to " + name + " failed", e);
+                }
+            }
+            buffer.length = 0;
+            freeBuffers.offer(buffer);
+        }
+        if (isWritten) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Flush of " + name + " failed", e);
+            }
+        }
+    }
+
+    private void openFile() throws IOException {
+        fileNumber++;
+        String fileName = fileNumber == 1 ? name + ".csv" : name + "_" + fileNumber + ".csv";
+        writer = new FileWriter(new File(directory, fileName));
+        fileBytes = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) writer.write(',');
+            writer.write(columns[i].name);
+        }
+        writer.write('\n');
+    }
+
+    //Write everything that was logged and close the file, the logger can't be used after this
+    public void close() {
+        synchronized (this) {
+            if (isClosed) return;
+        }
+        writeLoop.cancel();
+        if (current != null && current.length > 0) {
+            fullBuffers.offer(current);
+            current = null;
+        }
+        write();
+        synchronized (this) {
+            isClosed = true;
+            try {
+                if (writer != null) writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Close of " + name + " failed", e);
+            }
+        }
+        Log.i(TAG, String.format("%s: %d rows, %d dropped", name, rowCount, droppedRowCount));
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    //Rows lost because the writer couldn't keep up
+    public long getDroppedRowCount() {
+        return droppedRowCount;
+    }
+}
@@ -0,0 +1,155 @@
+package org.steelhead.ftc;
+
+/**
+ * Two loop drive controller for driving straight to a distance. The outer loop commands a
+ * forward velocity that ramps up at the maximum acceleration, cruises at the maximum velocity
+ * and ramps down by how far the robot still has to go, so the slowdown happens at the right
+ * place however fast the robot really is. The forward power is that velocity fed forward plus a
+ * P term on how far the robot is behind a reference position that follows the commanded
+ * velocity. The inner loop is the heading correction (the gyro PID output), which is mixed into
+ * the wheel powers at every speed so the heading is held all the way to the stop.
+ *
+ * The power only gets down to the minimum at the distance, and from there the robot keeps
+ * creeping at the minimum power so a stop condition like a line can end the move. Positions are
+ * in encoder counts.
+ */
+
+public class DriveController {
+    //Power per count the robot is behind the reference position
+    public static final double DEFAULT_KP = 0.001;
+
+    private final double distance;
+    private final double maxVelocity;
+    private final double maxAcceleration;
+    private final double minPower;
+    private final double maxPower;
+    private double kv;
+    private double ka = 0;
+    private double kp = DEFAULT_KP;
+    private double steerFraction = 0.5;
+    private long startTime = 0;
+    private long lastTime = 0;
+
+    //Results of the last update()
+    public double leftPower;
+    public double rightPower;
+
+    private double reference = 0;
+    private double velocity = 0;
+    private double forwardPower = 0;
+    private double distanceError = 0;
+    private double maxDistanceError = 0;
+    private double steer = 0;
+    private long updateCount = 0;
+
+    /*
+     * Drive distance counts at up to maxVelocity counts/s, speeding up and slowing down at
+     * maxAcceleration counts/s^2. The power stays between minPower and maxPower, and the velocity
+     * is fed forward as maxPower / maxVelocity power per count/s until setGains() says otherwise.
+     */
+    public DriveController(double distance, double maxVelocity, double maxAcceleration,
+                           double minPower, double maxPower) {
+        if (maxVelocity <= 0 || maxAcceleration <= 0) {
+            throw new IllegalArgumentException("Drive velocity and acceleration must be positive");
+        }
+        this.distance = distance;
+        this.maxVelocity = maxVelocity;
+        this.maxAcceleration = maxAcceleration;
+        this.minPower = minPower;
+        this.maxPower = maxPower;
+        kv = maxPower / maxVelocity;
+    }
+
+    //Power per count/s and count/s^2 of the commanded velocity, and per count behind the
+    //reference position
+    public void setGains(double kv, double ka, double kp) {
+        this.kv = kv;
+        this.ka = ka;
+        this.kp = kp;
+    }
+
+    //Largest heading correction as a fraction of the forward power, so it never reverses a wheel
+    public void setSteerFraction(double steerFraction) {
+        this.steerFraction = steerFraction;
+    }
+
+    //Start the ramp up, time is ControlClock.nanoTime()
+    public void start(long time) {
+        startTime = time;
+        lastTime = time;
+        reference = 0;
+        maxDistanceError = 0;
+        updateCount = 0;
+    }
+
+    /*
+     * Calculate the wheel powers for the distance driven so far and the heading correction, a
+     * positive correction speeds up the left wheel. Results go in leftPower and rightPower.
+     */
+    public void update(double position, double headingCorrection, long time) {
+        double t = (time - startTime) / 1e9;
+        double dt = (time - lastTime) / 1e9;
+        lastTime = time;
+        updateCount++;
+
+        //Slow enough at every point to stop at the distance with the maximum acceleration
+        double remaining = distance - position;
+        double rampDown = Math.sqrt(2 * maxAcceleration * Math.max(0, remaining));
+        double rampUp = maxAcceleration * t;
+        velocity = Math.min(maxVelocity, Math.min(rampUp, rampDown));
+        double acceleration = 0;
+        if (velocity == rampUp && rampUp < rampDown) {
+            acceleration = maxAcceleration;
+        } else if (velocity == rampDown) {
+            acceleration = -maxAcceleration;
+        }
+
+        reference = Math.min(distance, reference + velocity * dt);
+        distanceError = reference - position;
+
+        double forward;
+        if (remaining <= 0) {
+            forward = minPower;
+        } else {
+            //Creeping past the distance isn't a tracking error
+            if (Math.abs(distanceError) > maxDistanceError) {
+                maxDistanceError = Math.abs(distanceError);
+            }
+            forward = kv * velocity + ka * acceleration + kp * distanceError;
+            forward = Math.max(minPower, Math.min(maxPower, forward));
+        }
+        forwardPower = forward;
+
+        double maxSteer = steerFraction * forward;
+        steer = Math.max(-maxSteer, Math.min(maxSteer, headingCorrection));
+        leftPower = forward + steer;
+        rightPower = forward - steer;
+    }
+
+    public double getForwardPower() {
+        return forwardPower;
+    }
+
+    //Commanded velocity of the last update, counts/s
+    public double getVelocity() {
+        return velocity;
+    }
+
+    //Reference position minus the measured position of the last update, counts
+    public double getDistanceError() {
+        return distanceError;
+    }
+
+    public double getMaxDistanceError() {
+        return maxDistanceError;
+    }
+
+    //Heading correction that was applied after the steering limit
+    public double getSteer() {
+        return steer;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+}
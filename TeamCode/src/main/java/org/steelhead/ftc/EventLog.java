@@ -0,0 +1,183 @@
+package org.steelhead.ftc;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Logging for the control loops. An event is registered once with its tag and a format with up
+ * to four %d or %f fields, and then logged with just its id and the numbers:
+ *
+ *      int event = EventLog.getInstance().register(TAG, "YAW: %d | OUTPUT: %f");
+ *      EventLog.getInstance().log(event, yaw, output);     //YAW: 12 | OUTPUT: 0.130000
+ *
+ * log() claims a slot in a fixed size ring and stores the numbers, it doesn't allocate, take a
+ * lock or touch logcat. The background thread turns the records into strings and writes them to
+ * logcat. Any thread can log; the ring is the bounded multi producer queue where each slot has a
+ * sequence number saying whether it is free or filled. When the ring is full the event is
+ * dropped and counted, and the next drain logs how many were lost.
+ */
+
+public class EventLog {
+    private static final String TAG = "EventLog";
+    private static final int CAPACITY = 1024;           //Power of two
+    private static final int MAX_FIELDS = 4;
+    private static final long DRAIN_PERIOD_MS = 50;
+
+    private static EventLog instance = null;
+
+    //Registered events, only added to under the lock, read by the drain task. A format is split
+    //into the text around the fields and the conversion of each field.
+    private final ArrayList<String> tags = new ArrayList<String>();
+    private final ArrayList<String> formats = new ArrayList<String>();
+    private final ArrayList<String[]> texts = new ArrayList<String[]>();
+    private final ArrayList<char[]> conversions = new ArrayList<char[]>();
+
+    //Slot i is free for the producer at position p when sequence[i] == p and filled for the
+    //consumer when sequence[i] == p + 1
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong enqueuePosition = new AtomicLong(0);
+    private long dequeuePosition = 0;
+    private final int[] events = new int[CAPACITY];
+    private final int[] counts = new int[CAPACITY];
+    private final double[] values = new double[CAPACITY * MAX_FIELDS];
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private long reportedDropCount = 0;
+
+    private final StringBuilder line = new StringBuilder();
+
+    public static synchronized EventLog getInstance() {
+        if (instance == null) {
+            instance = new EventLog();
+        }
+        return instance;
+    }
+
+    private EventLog() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        ControlScheduler.getInstance().scheduleBackground(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, DRAIN_PERIOD_MS);
+    }
+
+    //Returns the id to log the event with, registering the same tag and format again returns it
+    //too. %d fields are logged as whole numbers and %f fields like String.format() does.
+    public synchronized int register(String tag, String format) {
+        for (int i = 0; i < tags.size(); i++) {
+            if (tags.get(i).equals(tag) && formats.get(i).equals(format)) {
+                return i;
+            }
+        }
+        ArrayList<String> text = new ArrayList<String>();
+        StringBuilder conversion = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < format.length() - 1; i++) {
+            char c = format.charAt(i + 1);
+            if (format.charAt(i) == '%' && (c == 'd' || c == 'f')) {
+                text.add(format.substring(start, i));
+                conversion.append(c);
+                start = i + 2;
+                i++;
+            }
+        }
+        text.add(format.substring(start));
+        if (conversion.length() > MAX_FIELDS) {
+            throw new IllegalArgumentException("An event has at most " + MAX_FIELDS + " fields");
+        }
+        tags.add(tag);
+        formats.add(format);
+        texts.add(text.toArray(new String[text.size()]));
+        conversions.add(conversion.toString().toCharArray());
+        return tags.size() - 1;
+    }
+
+    public void log(int event, double a) {
+        log(event, 1, a, 0, 0, 0);
+    }
+
+    public void log(int event, double a, double b) {
+        log(event, 2, a, b, 0, 0);
+    }
+
+    public void log(int event, double a, double b, double c) {
+        log(event, 3, a, b, c, 0);
+    }
+
+    public void log(int event, double a, double b, double c, double d) {
+        log(event, 4, a, b, c, d);
+    }
+
+    private void log(int event, int count, double a, double b, double c, double d) {
+        long position;
+        int i;
+        while (true) {
+            position = enqueuePosition.get();
+            i = (int) (position & (CAPACITY - 1));
+            long difference = sequences.get(i) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) break;
+            } else if (difference < 0) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        }
+        events[i] = event;
+        counts[i] = count;
+        int v = i * MAX_FIELDS;
+        values[v] = a;
+        values[v + 1] = b;
+        values[v + 2] = c;
+        values[v + 3] = d;
+        sequences.set(i, position + 1);
+    }
+
+    //Write the filled slots to logcat, only run by the background thread
+    private synchronized void drain() {
+        while (true) {
+            int i = (int) (dequeuePosition & (CAPACITY - 1));
+            if (sequences.get(i) != dequeuePosition + 1) break;
+            int event = events[i];
+            int count = counts[i];
+            line.setLength(0);
+            String[] text = texts.get(event);
+            char[] conversion = conversions.get(event);
+            for (int f = 0; f < conversion.length; f++) {
+                line.append(text[f]);
+                //A field that wasn't logged is left empty
+                if (f < count) appendValue(conversion[f], values[i * MAX_FIELDS + f]);
+            }
+            line.append(text[conversion.length]);
+            String tag = tags.get(event);
+            sequences.set(i, dequeuePosition + CAPACITY);
+            dequeuePosition++;
+            Log.i(tag, line.toString());
+        }
+
+        long dropped = droppedCount.get();
+        if (dropped != reportedDropCount) {
+            Log.w(TAG, String.format("Dropped %d events, %d in total",
+                    dropped - reportedDropCount, dropped));
+            reportedDropCount = dropped;
+        }
+    }
+
+    private void appendValue(char conversion, double value) {
+        if (conversion == 'd') {
+            line.append((long) value);
+        } else {
+            line.append(String.format(Locale.US, "%f", value));
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,85 @@
+package org.steelhead.ftc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Turns a FlightRecorder file into a CSV. It only uses plain Java so it runs on a computer:
+ *      java -cp <classes> org.steelhead.ftc.FlightLogDecoder flight.bin [flight.csv]
+ * Times in the CSV are seconds from when the recorder was opened.
+ */
+
+public class FlightLogDecoder {
+    private static final String[] SOURCES = {"?", "rotate", "drive", "line follow", "encoder"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FlightLogDecoder <flight.bin> [output.csv]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = new File(args.length > 1 ? args[1] :
+                args[0].replaceAll("\\.bin$", "") + ".csv");
+        Writer writer = new BufferedWriter(new FileWriter(output));
+        try {
+            int count = decode(input, writer);
+            System.out.println(count + " records written to " + output);
+        } finally {
+            writer.close();
+        }
+    }
+
+    //Write the records of a flight file as CSV rows, returns the number of records
+    public static int decode(File input, Writer writer) throws IOException {
+        FileChannel channel = new FileInputStream(input).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //Read the whole file
+            }
+            buffer.flip();
+
+            if (buffer.remaining() < FlightRecorder.HEADER_SIZE ||
+                    buffer.getInt() != FlightRecorder.MAGIC) {
+                throw new IOException(input + " is not a flight recorder file");
+            }
+            int version = buffer.getInt();
+            int recordSize = buffer.getInt();
+            long startTime = buffer.getLong();
+            if (version != FlightRecorder.VERSION || recordSize != FlightRecorder.RECORD_SIZE) {
+                throw new IOException("Unsupported flight file version " + version);
+            }
+
+            writer.write("Time(s),Source,Left Encoder,Right Encoder,Heading,Alpha,Setpoint," +
+                    "Error,Integral,Derivative,Output,Left Power,Right Power\n");
+            int count = 0;
+            while (buffer.remaining() >= recordSize) {
+                int i = buffer.position();
+                int source = buffer.getInt(i + 8);
+                writer.write(String.format(Locale.US,
+                        "%.6f,%s,%d,%d,%d,%d,%g,%g,%g,%g,%g,%g,%g\n",
+                        (buffer.getLong(i) - startTime) / 1e9,
+                        source > 0 && source < SOURCES.length ? SOURCES[source] : SOURCES[0],
+                        buffer.getInt(i + 12), buffer.getInt(i + 16), buffer.getInt(i + 20),
+                        buffer.getInt(i + 24), buffer.getFloat(i + 28), buffer.getFloat(i + 32),
+                        buffer.getFloat(i + 36), buffer.getFloat(i + 40),
+                        buffer.getFloat(i + 44), buffer.getFloat(i + 48),
+                        buffer.getFloat(i + 52)));
+                buffer.position(i + recordSize);
+                count++;
+            }
+            return count;
+        } finally {
+            channel.close();
+        }
+    }
+}
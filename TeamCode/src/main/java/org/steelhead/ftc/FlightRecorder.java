@@ -0,0 +1,214 @@
+package org.steelhead.ftc;
+
+import android.os.Environment;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records every control loop tick of an autonomous run to a binary file. The loop fills in the
+ * public fields and calls commit(), which copies them into a preallocated direct buffer ring, so
+ * recording a tick is a few puts with no allocation and no I/O. A task on the background thread
+ * writes the filled part of the ring straight to a FileChannel. If the writer falls so far
+ * behind that the ring is full the tick is dropped and counted.
+ *
+ * Every commit is recorded, the motion loops only commit when they have something new: a PID
+ * calculation or an encoder reading. setMinInterval() can thin the records out.
+ *
+ * The file is a header (magic, version, record size, start time) followed by fixed size little
+ * endian records, FlightLogDecoder turns it into a CSV on any computer.
+ */
+
+public class FlightRecorder {
+    private static final String TAG = "FlightRecorder";
+
+    public static final int MAGIC = 0x52464853;     //"SHFR" in the file
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 20;
+    public static final int RECORD_SIZE = 56;
+    private static final long WRITE_PERIOD_MS = 100;
+
+    //Which motion primitive a record is from
+    public static final int ROTATE      = 1;
+    public static final int DRIVE       = 2;
+    public static final int LINE_FOLLOW = 3;
+    public static final int ENCODER     = 4;
+
+    //Values of the next record, every commit clears them so a field a primitive doesn't set is
+    //recorded as 0 instead of what the last primitive left in it
+    public long     timestamp;          //ControlClock.nanoTime()
+    public int      leftPosition;
+    public int      rightPosition;
+    public int      heading;            //Gyro integrated Z, degrees
+    public int      alpha;              //Line color sensor
+    public double   setpoint;
+    public double   error;
+    public double   integral;
+    public double   derivative;
+    public double   output;
+    public double   leftPower;
+    public double   rightPower;
+
+    private final int capacity;
+    private final ByteBuffer ring;
+    private final ByteBuffer writeView;
+    private final FileChannel channel;
+    private final ControlScheduler.ControlLoop writeLoop;
+    private long minIntervalNs = 0;
+    private long lastTimestamp = 0;
+
+    //Records committed and records written, only the recording thread moves head
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long droppedCount = 0;
+    private boolean isClosed = false;
+
+    //Record to file, keeping up to capacity records in memory for the writer
+    public FlightRecorder(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        ring = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writeView = ring.duplicate();
+        channel = new FileOutputStream(file).getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putLong(ControlClock.nanoTime());
+        header.flip();
+        try {
+            while (header.hasRemaining()) channel.write(header);
+        } catch (IOException e) {
+            //Closing the channel closes the stream under it
+            channel.close();
+            throw e;
+        }
+
+        writeLoop = ControlScheduler.getInstance().scheduleBackground(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, WRITE_PERIOD_MS);
+    }
+
+    //A recorder writing to Documents/<name>.bin, null if the storage isn't available
+    public static FlightRecorder open(String name, int capacity) {
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) return null;
+        File file = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOCUMENTS), name + ".bin");
+        try {
+            return new FlightRecorder(file, capacity);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open " + file, e);
+            return null;
+        }
+    }
+
+    //Copy the fields into the ring as a record from the given primitive, only one thread records
+    public void commit(int source) {
+        if (head > 0 && timestamp - lastTimestamp < minIntervalNs) {
+            clear();
+            return;
+        }
+        lastTimestamp = timestamp;
+        long h = head;
+        if (h - tail >= capacity) {
+            droppedCount++;
+            clear();
+            return;
+        }
+        int i = (int) (h % capacity) * RECORD_SIZE;
+        ring.putLong(i, timestamp);
+        ring.putInt(i + 8, source);
+        ring.putInt(i + 12, leftPosition);
+        ring.putInt(i + 16, rightPosition);
+        ring.putInt(i + 20, heading);
+        ring.putInt(i + 24, alpha);
+        ring.putFloat(i + 28, (float) setpoint);
+        ring.putFloat(i + 32, (float) error);
+        ring.putFloat(i + 36, (float) integral);
+        ring.putFloat(i + 40, (float) derivative);
+        ring.putFloat(i + 44, (float) output);
+        ring.putFloat(i + 48, (float) leftPower);
+        ring.putFloat(i + 52, (float) rightPower);
+        head = h + 1;
+        clear();
+    }
+
+    private void clear() {
+        timestamp = 0;
+        leftPosition = 0;
+        rightPosition = 0;
+        heading = 0;
+        alpha = 0;
+        setpoint = 0;
+        error = 0;
+        integral = 0;
+        derivative = 0;
+        output = 0;
+        leftPower = 0;
+        rightPower = 0;
+    }
+
+    //Shortest time between two records, 0 (the default) records every commit
+    public void setMinInterval(double ms) {
+        minIntervalNs = (long) (ms * 1e6);
+    }
+
+    //Fill the PID fields from a controller snapshot
+    public void setPid(PidSnapshot pid) {
+        error = pid.error;
+        integral = pid.integral;
+        derivative = pid.derivative;
+        output = pid.output;
+    }
+
+    //Write everything committed so far, on the background thread or from close()
+    private synchronized void write() {
+        if (isClosed) return;
+        long h = head;
+        long t = tail;
+        try {
+            while (t < h) {
+                int start = (int) (t % capacity);
+                int count = (int) Math.min(h - t, capacity - start);
+                writeView.limit((start + count) * RECORD_SIZE);
+                writeView.position(start * RECORD_SIZE);
+                while (writeView.hasRemaining()) channel.write(writeView);
+                writeView.clear();
+                t += count;
+                tail = t;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Write failed, recording stopped", e);
+            isClosed = true;
+            writeLoop.cancel();
+        }
+    }
+
+    //Write what is left and close the file
+    public void close() {
+        writeLoop.cancel();
+        write();
+        synchronized (this) {
+            isClosed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Close failed", e);
+            }
+        }
+        Log.i(TAG, String.format("Recorded %d ticks, dropped %d", head, droppedCount));
+    }
+
+    public long getRecordCount() {
+        return head;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
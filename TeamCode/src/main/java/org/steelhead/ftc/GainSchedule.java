@@ -0,0 +1,160 @@
+package org.steelhead.ftc;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * PID gains that depend on the battery voltage and the commanded speed. The gains are kept in a
+ * small table with a row per voltage and a column per speed and are interpolated between the
+ * four nearest entries. Outside of the table the nearest edge is used.
+ *
+ * A schedule is stored in SharedPreferences as one string:
+ *      "12.0,13.5;0.25,0.75;kp ki kd,kp ki kd,kp ki kd,kp ki kd"
+ * The voltages, then the speeds, then the gains for each voltage row, speed by speed.
+ */
+
+public class GainSchedule {
+    private static final String TAG = "GainSchedule";
+
+    private final double[] voltages;
+    private final double[] speeds;
+    private final double[] kp;
+    private final double[] ki;
+    private final double[] kd;
+
+    //The voltages and speeds have to be in increasing order
+    public GainSchedule(double[] voltages, double[] speeds) {
+        if (voltages.length == 0 || speeds.length == 0) {
+            throw new IllegalArgumentException("Gain schedule needs at least one voltage and speed");
+        }
+        for (int i = 1; i < voltages.length; i++) {
+            if (voltages[i] <= voltages[i - 1]) {
+                throw new IllegalArgumentException("Gain schedule voltages must increase");
+            }
+        }
+        for (int i = 1; i < speeds.length; i++) {
+            if (speeds[i] <= speeds[i - 1]) {
+                throw new IllegalArgumentException("Gain schedule speeds must increase");
+            }
+        }
+        this.voltages = voltages.clone();
+        this.speeds = speeds.clone();
+        kp = new double[voltages.length * speeds.length];
+        ki = new double[kp.length];
+        kd = new double[kp.length];
+    }
+
+    public GainSchedule setGains(int voltageIndex, int speedIndex, double kp, double ki,
+                                 double kd) {
+        int i = voltageIndex * speeds.length + speedIndex;
+        this.kp[i] = kp;
+        this.ki[i] = ki;
+        this.kd[i] = kd;
+        return this;
+    }
+
+    //Interpolate the gains for a voltage and speed into the PID core, doesn't allocate
+    public void apply(double voltage, double speed, PidCore pid) {
+        int v = lowerIndex(voltages, voltage);
+        int s = lowerIndex(speeds, speed);
+        double fv = fraction(voltages, v, voltage);
+        double fs = fraction(speeds, s, speed);
+        int v1 = Math.min(v + 1, voltages.length - 1);
+        int s1 = Math.min(s + 1, speeds.length - 1);
+        int i00 = v * speeds.length + s;
+        int i01 = v * speeds.length + s1;
+        int i10 = v1 * speeds.length + s;
+        int i11 = v1 * speeds.length + s1;
+        pid.setPID(bilinear(kp, i00, i01, i10, i11, fv, fs),
+                bilinear(ki, i00, i01, i10, i11, fv, fs),
+                bilinear(kd, i00, i01, i10, i11, fv, fs));
+    }
+
+    private static double bilinear(double[] table, int i00, int i01, int i10, int i11,
+                                   double fv, double fs) {
+        double low = table[i00] + (table[i01] - table[i00]) * fs;
+        double high = table[i10] + (table[i11] - table[i10]) * fs;
+        return low + (high - low) * fv;
+    }
+
+    //Index of the last entry at or below x, 0 if x is below the table
+    private static int lowerIndex(double[] axis, double x) {
+        int i = 0;
+        while (i < axis.length - 1 && axis[i + 1] <= x) i++;
+        return i;
+    }
+
+    //How far x is from axis[i] towards axis[i + 1], clamped to 0..1
+    private static double fraction(double[] axis, int i, double x) {
+        if (i == axis.length - 1 || x <= axis[i]) return 0;
+        return Math.min((x - axis[i]) / (axis[i + 1] - axis[i]), 1);
+    }
+
+    public static GainSchedule parse(String text) {
+        String[] parts = text.split(";");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Gain schedule needs voltages;speeds;gains");
+        }
+        GainSchedule schedule = new GainSchedule(parseList(parts[0]), parseList(parts[1]));
+        String[] gains = parts[2].split(",");
+        if (gains.length != schedule.kp.length) {
+            throw new IllegalArgumentException("Gain schedule has " + gains.length
+                    + " gain entries, expected " + schedule.kp.length);
+        }
+        for (int i = 0; i < gains.length; i++) {
+            String[] pid = gains[i].trim().split("\\s+");
+            if (pid.length != 3) {
+                throw new IllegalArgumentException("Gain entry needs kp ki kd: " + gains[i]);
+            }
+            schedule.kp[i] = Double.parseDouble(pid[0]);
+            schedule.ki[i] = Double.parseDouble(pid[1]);
+            schedule.kd[i] = Double.parseDouble(pid[2]);
+        }
+        return schedule;
+    }
+
+    private static double[] parseList(String text) {
+        String[] items = text.split(",");
+        double[] values = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = Double.parseDouble(items[i].trim());
+        }
+        return values;
+    }
+
+    //Returns null if there is no schedule saved under key or it can't be read
+    public static GainSchedule load(SharedPreferences sharedPref, String key) {
+        String text = sharedPref.getString(key, null);
+        if (text == null) return null;
+        try {
+            return parse(text);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring bad gain schedule " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(SharedPreferences.Editor editor, String key) {
+        editor.putString(key, toString());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < voltages.length; i++) {
+            if (i > 0) text.append(',');
+            text.append(voltages[i]);
+        }
+        text.append(';');
+        for (int i = 0; i < speeds.length; i++) {
+            if (i > 0) text.append(',');
+            text.append(speeds[i]);
+        }
+        text.append(';');
+        for (int i = 0; i < kp.length; i++) {
+            if (i > 0) text.append(',');
+            text.append(kp[i]).append(' ').append(ki[i]).append(' ').append(kd[i]);
+        }
+        return text.toString();
+    }
+}
@@ -1,10 +1,7 @@
 package org.steelhead.ftc;
 
-import android.util.Log;
-
 import com.qualcomm.hardware.modernrobotics.ModernRoboticsI2cGyro;
-import com.qualcomm.robotcore.hardware.ColorSensor;
-import com.qualcomm.robotcore.util.ElapsedTime;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
 
 /**
  * Created by Alec Matthews on 10/23/2016.
@@ -13,92 +10,196 @@ import com.qualcomm.robotcore.util.ElapsedTime;
 
 public class GyroPIDController {
     //initialize values
-    private Thread pidThread;
+    private static final long LOOP_PERIOD_MS = 17;
+
+    private final int angle;
+    private final Runnable pidLoop;
+    private final GyroSampleMonitor.SampleListener sampleListener;
+    private ControlScheduler.ControlLoop controlLoop = null;
+    private GyroSampleMonitor sampleMonitor = null;
+
+    //Relay mode for auto tuning, the output is +-relayAmplitude instead of the PID output
+    private volatile double relayAmplitude = 0;
+    private double relayHysteresis = 0;
+    private double relayOutput = 0;
+
+    //Optional heading profile, the setpoint follows it from the start angle to the target angle
+    private volatile TrapezoidProfile profile = null;
+    private double kv = 0;
+    private double ka = 0;
+    private volatile long profileStartTime = 0;
     private int offsetValue;
 
     private volatile double output = 0;
-    private boolean isActive = true;
-    private double kp;
-    private double ki;
-    private double kd;
+    private final PidCore pid = new PidCore(0, 0, 0);
+
+    //Gain schedule lookup and the published snapshot of each calculation
+    private final PidState state = new PidState(pid);
     private volatile double cError = 0;
     private int tolerance = 0;
 
-    private ElapsedTime logRate = new ElapsedTime();
+    private long lastLogTime = ControlClock.nanoTime();
+    private final EventLog eventLog = EventLog.getInstance();
+    private final int outputEvent;
     private String TAG;
 
     public GyroPIDController(final ModernRoboticsI2cGyro gyro, final int angle, int tolerance,
                              final String TAG) {
         this.tolerance = tolerance;
         this.TAG = TAG + ":gyro sensor";
-        //Setup the separate thread for calculating the values
-        //This is in a separate thread so it doesn't slow down the main thread.
-        pidThread = new Thread(new Runnable() {
+        outputEvent = eventLog.register(this.TAG, "YAW: %d | OUTPUT: %f");
+        //The integral is cleared when the sign changes, the error is 0 or the error is too big
+        pid.setIntegralZone(10);
+
+        this.angle = angle;
+
+        //Setup the loop for calculating the values
+        //It runs on the shared control scheduler so it doesn't slow down the main thread.
+        pidLoop = new Runnable() {
             @Override
             public void run() {
-                //Calculate the PID output
-                double error;
-                double lastError = 0;
-                double integral = 0;
-                double derivative;
-                while (isActive) {
-                    error = gyro.getIntegratedZValue() - angle;
-                    cError = error;
-                    /*
-                    Calculate the integral term. We are clamping it when the sign changes
-                    when the error is 0 or when the error value is too big.
-                    */
-                    integral = integral + (error*0.017);
-                    if (lastError > 0 && error < 0) {
-                        integral = 0;
-                    }else if (lastError < 0 && error > 0) {
-                        integral = 0;
-                    }else if (error == 0) {
-                        integral = 0;
-                    }
-                    if (Math.abs(error) > 10) {
-                        integral = 0;
-                    }
-
-                    derivative = ((error - lastError)/0.017);
-                    lastError = error;
-
-                    output = (kp * error) + (ki * integral) + (kd * derivative);
-
-                    if (logRate.milliseconds() >= 500) {
-                        logRate.reset();
-                        Log.i(TAG, String.format("YAW: %d | OUTPUT: %f", gyro.getIntegratedZValue(),
-                                output));
-                    }
-
-                    //Wait for the sensor to gather new values
-                    //and slow down the loop so the integral term doesn't get too big too fast
-                    try {
-                        Thread.sleep(17);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+                calculate(gyro.getIntegratedZValue(), ControlClock.nanoTime());
             }
-        });
+        };
+
+        //In sample mode the output is calculated once for each new gyro sample
+        sampleListener = new GyroSampleMonitor.SampleListener() {
+            @Override
+            public void onSample(int integratedZ, long timestamp) {
+                calculate(integratedZ, timestamp);
+            }
+        };
     }
-    //This function is used to set the PID values. It must be run before the thread is started
+
+    //Calculate the PID output
+    private void calculate(int yaw, long time) {
+        state.scheduleGains();
+        double error = yaw - angle;
+        double result;
+        boolean isOnTarget = Math.abs(error) <= tolerance;
+        TrapezoidProfile p = profile;
+        double relay = relayAmplitude;
+        if (relay > 0) {
+            //Switch the output on the sign of the error, the hysteresis keeps noise from chattering
+            if (error > relayHysteresis) {
+                relayOutput = relay;
+            } else if (error < -relayHysteresis) {
+                relayOutput = -relay;
+            }
+            result = relayOutput;
+        } else if (p != null) {
+            //Track the profile setpoint and feed the profile's rate forward. A positive output
+            //turns towards a lower heading, so the feed forward has the opposite sign of the rate.
+            double t = (time - profileStartTime) / 1e9;
+            result = pid.update(yaw - p.position(t), time)
+                    - (kv * p.velocity(t) + ka * p.acceleration(t));
+            isOnTarget = isOnTarget && p.isFinished(t);
+        } else {
+            result = pid.update(error, time);
+        }
+
+        cError = error;
+        output = result;
+        state.publish(result, error, isOnTarget, time);
+
+        if (ControlClock.millisecondsSince(lastLogTime) >= 500) {
+            lastLogTime = ControlClock.nanoTime();
+            eventLog.log(outputEvent, yaw, result);
+        }
+    }
+
+    //This function is used to set the PID values. It must be run before the loop is started
     public void setPID(double kp, double ki, double kd) {
-        this.kp = kp;
-        this.ki = ki;
-        this.kd = kd;
+        pid.setPID(kp, ki, kd);
+    }
+
+    /*
+     * Follow a heading profile instead of jumping to the target. kv and ka are the output per
+     * degree/s and per degree/s^2 of the profile that are fed forward. It must be set before the
+     * controller is enabled, the profile starts when it is.
+     */
+    public void setProfile(TrapezoidProfile profile, double kv, double ka) {
+        this.kv = kv;
+        this.ka = ka;
+        this.profile = profile;
     }
-    //Start the thread
+
+    //Look the gains up in schedule every calculation instead of using the ones from setPID
+    public void setGainSchedule(GainSchedule schedule, VoltageSensor batVolt) {
+        state.setGainSchedule(schedule, batVolt);
+    }
+
+    //Speed used for the gain schedule lookup, e.g. the drive speed
+    public void setCommandedSpeed(double speed) {
+        state.setCommandedSpeed(speed);
+    }
+
+    //Replace the PID output with a relay of +-amplitude for a RelayAutoTune experiment, 0 turns it
+    //off. It must be set before the controller is enabled.
+    public void setRelay(double amplitude, double hysteresis) {
+        relayHysteresis = hysteresis;
+        relayAmplitude = amplitude;
+    }
+
+    //Time constant of the derivative filter in seconds, the filter is off until this is set
+    public void setDerivativeFilter(double timeConstant) {
+        pid.setDerivativeFilter(timeConstant);
+    }
+
+    //Limits of the output, normally the motor output limits so the integral doesn't wind up
+    //while the motors are saturated
+    public void setOutputRange(double minOutput, double maxOutput) {
+        pid.setOutputRange(minOutput, maxOutput);
+    }
+
+    //Largest change of the output per second, 0 turns the limit off
+    public void setSlewRate(double slewRate) {
+        pid.setSlewRate(slewRate);
+    }
+
+    //Start the loop. The period is slow enough that the sensor has new values
+    //and the integral term doesn't get too big too fast
     public void enable() {
-        pidThread.start();
-        logRate.reset();
+        if (controlLoop != null || sampleMonitor != null) return;
+        lastLogTime = ControlClock.nanoTime();
+        profileStartTime = ControlClock.nanoTime();
+        controlLoop = ControlScheduler.getInstance().schedule(pidLoop, LOOP_PERIOD_MS);
     }
 
-    //Stop the thread
+    //Calculate on every new sample from the monitor instead of on a fixed period
+    public void enable(GyroSampleMonitor monitor) {
+        if (controlLoop != null || sampleMonitor != null) return;
+        lastLogTime = ControlClock.nanoTime();
+        profileStartTime = ControlClock.nanoTime();
+        sampleMonitor = monitor;
+        monitor.addListener(sampleListener);
+    }
+
+    //Stop the loop
     public void disable() {
-        isActive = false;
+        if (controlLoop != null) controlLoop.cancel();
+        if (sampleMonitor != null) sampleMonitor.removeListener(sampleListener);
+    }
+
+    //Timing of the loop on the control scheduler, null unless enabled with a fixed period
+    public ControlScheduler.ControlLoop getControlLoop() {
+        return controlLoop;
+    }
+
+    //Block until the controller has calculated an output, returns false on timeout
+    public boolean waitForOutput(int timeoutMs) throws InterruptedException {
+        return state.waitForOutput(timeoutMs);
+    }
+
+    /*
+     * Copy the latest calculation into snapshot. Returns true if it is a newer iteration than the
+     * one the snapshot held, so a caller reusing one snapshot can tell if it already acted on it.
+     */
+    public boolean getSnapshot(PidSnapshot snapshot) {
+        return state.getSnapshot(snapshot);
     }
 
+    //isOnTarget() and getOutput() can come from different iterations, use getSnapshot() for both
     public boolean isOnTarget() {
         if (Math.abs(cError) <= tolerance) {
             return true;
@@ -0,0 +1,173 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.hardware.modernrobotics.ModernRoboticsI2cGyro;
+import com.qualcomm.robotcore.hardware.I2cController;
+import com.qualcomm.robotcore.hardware.usb.RobotArmingStateNotifier;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Sample arrival notifications for the Modern Robotics gyro. The gyro driver has no way to tell
+ * when it has read a new value, so the monitor takes the gyro's place as the port ready callback
+ * and passes every callback on to the gyro. The controller only copies a finished i2c read into
+ * the read cache when the driver asks for it, so like I2cRegisterDevice the monitor clears the
+ * device address in the read cache once it has seen a read; the address is back exactly when the
+ * next read has arrived, and the driver copies it in on that same callback. Listeners are called
+ * on the port callback thread once per new sample, whether or not the values changed.
+ *
+ * Like navXPerformanceMonitor it counts the callbacks that brought no new sample (duplicates). The
+ * gyro has no sample counter to find lost samples with, so instead it counts the reads the driver
+ * skipped: a read that took n times the callbacks of the usual read cycle, e.g. because of a
+ * command write, skipped n - 1 reads. The usual read cycle is the length two reads in a row had.
+ */
+
+public class GyroSampleMonitor implements I2cController.I2cPortReadyCallback,
+        RobotArmingStateNotifier.Callback {
+    public interface SampleListener {
+        //Called on the port callback thread, keep it short
+        void onSample(int integratedZ, long timestamp);
+    }
+
+    private final ModernRoboticsI2cGyro gyro;
+    private final I2cController controller;
+    private final int port;
+    private final byte devAddr;
+    private final byte[] readCache;
+    private final Lock readLock;
+    private final I2cController.I2cPortReadyCallback gyroCallback;
+    private final CopyOnWriteArrayList<SampleListener> listeners =
+            new CopyOnWriteArrayList<SampleListener>();
+    private volatile boolean isStarted = false;
+
+    //Callbacks per read, only used by the port callback
+    private int callbacksSinceRead = 0;
+    private int lastReadCallbacks = 0;
+    private int readCycleCallbacks = 0;
+
+    private volatile long sampleCount = 0;
+    private volatile long duplicateCount = 0;
+    private volatile long skippedCount = 0;
+    private volatile long startTime = 0;
+
+    public GyroSampleMonitor(ModernRoboticsI2cGyro gyro) {
+        this.gyro = gyro;
+        controller = gyro.getI2cController();
+        port = gyro.getPort();
+        devAddr = (byte) gyro.getI2cAddress().get8Bit();
+        readCache = controller.getI2cReadCache(port);
+        readLock = controller.getI2cReadCacheLock(port);
+        I2cController.I2cPortReadyCallback callback = controller.getI2cPortReadyCallback(port);
+        gyroCallback = callback != null ? callback : gyro;
+    }
+
+    //Put the monitor in front of the gyro's port callback
+    public void start() {
+        startTime = ControlClock.nanoTime();
+        isStarted = true;
+        if (controller instanceof RobotArmingStateNotifier) {
+            ((RobotArmingStateNotifier) controller).registerCallback(this);
+        }
+        attach();
+    }
+
+    //Give the port callback back to the gyro
+    public void stop() {
+        isStarted = false;
+        if (controller instanceof RobotArmingStateNotifier) {
+            ((RobotArmingStateNotifier) controller).unregisterCallback(this);
+        }
+        controller.registerForI2cPortReadyCallback(gyroCallback, port);
+    }
+
+    /*
+     * The gyro registers itself as the port callback again whenever the controller is armed,
+     * which takes the monitor out of the chain. This puts the monitor back in front of it. It is
+     * called after a re-arm and whenever a listener is added, in case the gyro's arming callback
+     * ran after ours.
+     */
+    public void attach() {
+        if (isStarted && controller.getI2cPortReadyCallback(port) != this) {
+            controller.registerForI2cPortReadyCallback(this, port);
+        }
+    }
+
+    @Override
+    public void onModuleStateChange(RobotArmingStateNotifier module,
+                                    RobotArmingStateNotifier.ARMINGSTATE state) {
+        if (state == RobotArmingStateNotifier.ARMINGSTATE.ARMED ||
+                state == RobotArmingStateNotifier.ARMINGSTATE.PRETENDING) {
+            attach();
+        }
+    }
+
+    public void addListener(SampleListener listener) {
+        listeners.addIfAbsent(listener);
+        attach();
+    }
+
+    public void removeListener(SampleListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void portIsReady(int port) {
+        boolean isNewRead = false;
+        try {
+            readLock.lock();
+            if (readCache[I2cRegisterDevice.CACHE_MODE] == I2cRegisterDevice.READ_MODE &&
+                    readCache[I2cRegisterDevice.DEV_ADDR] == devAddr) {
+                readCache[I2cRegisterDevice.DEV_ADDR] = 0;
+                isNewRead = true;
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        gyroCallback.portIsReady(port);
+        callbacksSinceRead++;
+        if (!isNewRead) {
+            duplicateCount++;
+            return;
+        }
+
+        if (sampleCount > 0) {
+            if (callbacksSinceRead == lastReadCallbacks) {
+                readCycleCallbacks = callbacksSinceRead;
+            }
+            if (readCycleCallbacks > 0 && callbacksSinceRead >= 2 * readCycleCallbacks) {
+                skippedCount += callbacksSinceRead / readCycleCallbacks - 1;
+            }
+            lastReadCallbacks = callbacksSinceRead;
+        }
+        callbacksSinceRead = 0;
+        sampleCount++;
+
+        long now = ControlClock.nanoTime();
+
+        int integratedZ = gyro.getIntegratedZValue();
+        for (SampleListener listener : listeners) {
+            listener.onSample(integratedZ, now);
+        }
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    //Port callbacks that didn't bring a new sample
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    //Read cycles the driver spent on something else, like a command write
+    public long getSkippedReadCount() {
+        return skippedCount;
+    }
+
+    public double getSampleRateHz() {
+        double seconds = (ControlClock.nanoTime() - startTime) / 1e9;
+        if (startTime == 0 || seconds <= 0) return 0;
+        return sampleCount / seconds;
+    }
+}
@@ -20,6 +20,8 @@ import com.qualcomm.robotcore.hardware.VoltageSensor;
 
 import org.firstinspires.ftc.teamcode.R;
 
+import java.util.ArrayList;
+
 
 /**
  * Created by Alec Matthews on 9/18/16.
@@ -40,6 +42,7 @@ public class HardwareSteelheadMainBot {
     public ColorSensor color                    = null;
     public TouchSensor touchSensor              = null;
     public ModernRoboticsI2cGyro gyro           = null;
+    public GyroSampleMonitor gyroMonitor        = null;
     public Adafruit_ColorSensor beaconColor     = null;
     public VoltageSensor batVolt                = null;
     public Servo pusherRight2                   = null;
@@ -71,6 +74,9 @@ public class HardwareSteelheadMainBot {
     private static final String TAG = "ROBOT";
     private Context appContext = null;
 
+    //Data loggers opened for the op mode, closed with the robot
+    private final ArrayList<DataLogger> dataLoggers = new ArrayList<DataLogger>();
+
     public void init(HardwareMap aHwMap) {
         appContext = aHwMap.appContext;
 
@@ -141,6 +147,8 @@ public class HardwareSteelheadMainBot {
 
         gyro = (ModernRoboticsI2cGyro)aHwMap.gyroSensor.get(gyroSensorName);
         Log.i(TAG, gyro.getManufacturer().toString());
+        gyroMonitor = new GyroSampleMonitor(gyro);
+        gyroMonitor.start();
 
         //Adafruit Color sensor
         beaconColor = new Adafruit_ColorSensor(aHwMap, beaconColorName);
@@ -237,7 +245,23 @@ public class HardwareSteelheadMainBot {
         pusherLeft2.setPosition(position);
     }
 
+    //Gain schedule saved under the preference key resource id, null if there isn't one
+    public GainSchedule loadGainSchedule(int keyId) {
+        return GainSchedule.load(sharedPref, appContext.getString(keyId));
+    }
+
+    //CSV logger in Documents/<name>.csv that is closed by close(), null if it can't be opened
+    public DataLogger openDataLogger(String name, DataLogger.Column... columns) {
+        DataLogger logger = DataLogger.open(name, columns);
+        if (logger != null) dataLoggers.add(logger);
+        return logger;
+    }
+
     public void close() {
+        for (DataLogger logger : dataLoggers) {
+            logger.close();
+        }
+        dataLoggers.clear();
 
         pusherLeft.close();
         pusherRight.close();
@@ -248,6 +272,7 @@ public class HardwareSteelheadMainBot {
         color.close();
         beaconColor.close();
         touchSensor.close();
+        gyroMonitor.stop();
         gyro.close();
 
         Log.i(TAG, "Everything closed except batVolt");
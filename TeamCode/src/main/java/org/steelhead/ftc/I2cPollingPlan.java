@@ -0,0 +1,159 @@
+package org.steelhead.ftc;
+
+import java.util.Arrays;
+
+/**
+ * Polling plan for an I2cRegisterDevice. A plan is a list of register windows, each read every
+ * rateDivisor polls. When the plan is compiled the windows that are due in each poll are merged
+ * into the fewest burst reads that fit in the cache window, so something like a status register
+ * and the data after it come back in one transaction while rarely needed registers are only read
+ * once in a while.
+ */
+
+public class I2cPollingPlan {
+    //32 byte cache minus the 4 byte header and the action flag, keeping one byte spare
+    public static final int MAX_BURST_LENGTH = 26;
+    private static final int MAX_WINDOWS = 16;
+    private static final int MAX_PERIOD = 240;
+
+    private final int[] windowStart     = new int[MAX_WINDOWS];
+    private final int[] windowLength    = new int[MAX_WINDOWS];
+    private final int[] windowDivisor   = new int[MAX_WINDOWS];
+    private int windowCount = 0;
+
+    //Compiled schedule. The bursts of poll p are burstStart/burstCount[phaseFirst[p] to phaseFirst[p+1]]
+    private byte[]  burstStart;
+    private byte[]  burstCount;
+    private int[]   phaseFirst;
+    private int     period = 0;
+    private boolean isCompiled = false;
+
+    //Read position, only used by the port ready callback
+    private int phase = 0;
+    private int burst = 0;
+
+    //Fields of the last burst returned by next()
+    public byte regNumber;
+    public byte regCount;
+
+    public I2cPollingPlan addWindow(byte startReg, int length, int rateDivisor) {
+        if (isCompiled) {
+            throw new IllegalStateException("Polling plan is already in use");
+        }
+        if (windowCount == MAX_WINDOWS) {
+            throw new IllegalArgumentException("Too many polling windows");
+        }
+        if (length < 1 || length > MAX_BURST_LENGTH) {
+            throw new IllegalArgumentException("Polling window length must be 1 to "
+                    + MAX_BURST_LENGTH);
+        }
+        if (rateDivisor < 1) {
+            throw new IllegalArgumentException("Rate divisor must be at least 1");
+        }
+        windowStart[windowCount] = startReg & 0xFF;
+        windowLength[windowCount] = length;
+        windowDivisor[windowCount] = rateDivisor;
+        windowCount++;
+        return this;
+    }
+
+    //Build the schedule, a poll cycle is the least common multiple of the rate divisors
+    public synchronized void compile() {
+        if (isCompiled) return;
+
+        int cycle = 1;
+        for (int i = 0; i < windowCount; i++) {
+            cycle = lcm(cycle, windowDivisor[i]);
+            if (cycle > MAX_PERIOD) {
+                throw new IllegalArgumentException("Polling plan cycle is longer than "
+                        + MAX_PERIOD + " polls");
+            }
+        }
+
+        //Sort the windows by start register so neighbours can be merged
+        Integer[] order = new Integer[windowCount];
+        for (int i = 0; i < windowCount; i++) order[i] = i;
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return windowStart[a] - windowStart[b];
+            }
+        });
+
+        byte[] starts = new byte[cycle * Math.max(windowCount, 1)];
+        byte[] counts = new byte[starts.length];
+        int[] first = new int[cycle + 1];
+        int n = 0;
+        for (int p = 0; p < cycle; p++) {
+            first[p] = n;
+            int start = -1;
+            int end = -1;
+            for (Integer w : order) {
+                if (p % windowDivisor[w] != 0) continue;
+                int wStart = windowStart[w];
+                int wEnd = wStart + windowLength[w];
+                if (start >= 0 && Math.max(end, wEnd) - start <= MAX_BURST_LENGTH) {
+                    end = Math.max(end, wEnd);
+                } else {
+                    if (start >= 0) {
+                        starts[n] = (byte) start;
+                        counts[n] = (byte) (end - start);
+                        n++;
+                    }
+                    start = wStart;
+                    end = wEnd;
+                }
+            }
+            if (start >= 0) {
+                starts[n] = (byte) start;
+                counts[n] = (byte) (end - start);
+                n++;
+            }
+        }
+        first[cycle] = n;
+
+        burstStart = starts;
+        burstCount = counts;
+        phaseFirst = first;
+        period = cycle;
+        isCompiled = true;
+    }
+
+    /*
+     * Advance to the next burst read of the plan and put it in regNumber/regCount. Returns false
+     * if the plan has nothing to read. Polls with no windows due are skipped.
+     */
+    public boolean next() {
+        if (!isCompiled || phaseFirst[period] == 0) return false;
+        while (phaseFirst[phase] + burst >= phaseFirst[phase + 1]) {
+            burst = 0;
+            phase++;
+            if (phase == period) phase = 0;
+        }
+        int i = phaseFirst[phase] + burst;
+        regNumber = burstStart[i];
+        regCount = burstCount[i];
+        burst++;
+        return true;
+    }
+
+    //Number of burst reads in one full poll cycle
+    public int getBurstsPerCycle() {
+        return isCompiled ? phaseFirst[period] : 0;
+    }
+
+    public int getCycleLength() {
+        return period;
+    }
+
+    private static int lcm(int a, int b) {
+        int x = a;
+        int y = b;
+        while (y != 0) {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+}
@@ -0,0 +1,314 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.I2cController;
+import com.qualcomm.robotcore.hardware.I2cDevice;
+import com.qualcomm.robotcore.hardware.usb.RobotArmingStateNotifier;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Engine for register mapped i2c devices on the Core Device Interface Module. It owns the
+ * transfer queue and the port ready state machine: cache header compare, reading the cache back
+ * from the controller, packing the next transfer into the write cache, and measuring each round
+ * trip. A driver extends it, queues register reads and writes, and decodes the results in
+ * onTransferComplete().
+ *
+ * The register shadows that unchanged writes are checked against are forgotten whenever the
+ * controller is armed again, since the device may have lost power while it was disconnected.
+ */
+
+public abstract class I2cRegisterDevice implements I2cController.I2cPortReadyCallback,
+        RobotArmingStateNotifier.Callback {
+    static final byte
+        READ_MODE   = 0x00 - 128,
+        WRITE_MODE  = 0x00;
+
+    static final int
+        CACHE_MODE  = 0,
+        DEV_ADDR    = 1,
+        REG_NUMBER  = 2,
+        REG_COUNT   = 3,
+        DATA_OFFSET = 4,
+        ACTION_FLAG = 31;   //0 = idle, -1 = transfer in progress
+
+    private final I2cTransferRing   transferQueue;
+    private final I2cDevice         dev;
+    private final byte              devAddr;
+    private final byte[]            rCache;
+    private final byte[]            wCache;
+    private final Lock              rLock;
+    private final Lock              wLock;
+
+    //Throughput counters, only written from the port ready callback
+    private boolean         isTransferPending   = false;
+    private long            issueTime           = 0;
+    private volatile long   statsStartTime      = ControlClock.nanoTime();
+    private volatile long   transactionCount    = 0;
+    private volatile long   latencySum          = 0;
+    private volatile long   latencyMax          = 0;
+    private volatile boolean isResetRequested   = false;
+
+    private volatile I2cPollingPlan pollingPlan = null;
+
+    //Coalesced write in flight, acknowledged to the transfer queue when it completes
+    private boolean         isWritePending      = false;
+    private byte            writeRegNumber;
+    private byte            writeRegCount;
+    private long            writeRegValue;
+    private boolean         writeIsLowFirst;
+
+    protected I2cRegisterDevice(HardwareMap hardwareMap, String deviceName, int devAddr) {
+        transferQueue = new I2cTransferRing();
+        dev = hardwareMap.i2cDevice.get(deviceName);
+        this.devAddr = (byte) (devAddr & 0xFF);
+
+        rCache = dev.getI2cReadCache();
+        wCache = dev.getI2cWriteCache();
+        rLock = dev.getI2cReadCacheLock();
+        wLock = dev.getI2cWriteCacheLock();
+    }
+
+    //Issue the first queued transfer and start the port ready callbacks. Drivers call this at the
+    //end of their constructor once the init transfers are queued.
+    protected void startTransfers() {
+        I2cController controller = dev.getController();
+        if (controller instanceof RobotArmingStateNotifier) {
+            ((RobotArmingStateNotifier) controller).registerCallback(this);
+        }
+        executeCommands();
+        dev.registerForI2cPortReadyCallback(this);
+    }
+
+    public void close() {
+        I2cController controller = dev.getController();
+        if (controller instanceof RobotArmingStateNotifier) {
+            ((RobotArmingStateNotifier) controller).unregisterCallback(this);
+        }
+        dev.deregisterForPortReadyCallback();
+        transferQueue.clear();
+        transferQueue.invalidateShadows();
+        dev.close();
+    }
+
+    @Override
+    public void onModuleStateChange(RobotArmingStateNotifier module,
+                                    RobotArmingStateNotifier.ARMINGSTATE state) {
+        if (state == RobotArmingStateNotifier.ARMINGSTATE.ARMED ||
+                state == RobotArmingStateNotifier.ARMINGSTATE.PRETENDING) {
+            transferQueue.invalidateShadows();
+        }
+    }
+
+    /*
+     * Called from the port ready callback once the controller has finished a transfer. The data
+     * of a read starts at cache[offset]. The read cache lock is held.
+     */
+    protected abstract void onTransferComplete(byte regNumber, byte regCount, byte[] cache,
+                                               int offset);
+
+    //Called from the port ready callback when there is nothing queued. By default the next burst
+    //of the polling plan is read, a driver can override it to issue its own transfer.
+    protected void onQueueEmpty() {
+        I2cPollingPlan plan = pollingPlan;
+        if (plan != null && plan.next()) {
+            issueRead(plan.regNumber, plan.regCount);
+        }
+    }
+
+    //Replace the registers that are read whenever the transfer queue is empty, null stops polling
+    public void setPollingPlan(I2cPollingPlan plan) {
+        if (plan != null) plan.compile();
+        pollingPlan = plan;
+    }
+
+    public I2cPollingPlan getPollingPlan() {
+        return pollingPlan;
+    }
+
+    @Override
+    public void portIsReady(int port) {
+        try {
+            rLock.lock();
+            if (rCache[0] == wCache[0] && rCache[1] == wCache[1] && rCache[2] == wCache[2] &&
+                    rCache[3] == wCache[3]) {
+                rCache[DEV_ADDR] = 0;
+                if (isTransferPending) {
+                    isTransferPending = false;
+                    recordTransaction(ControlClock.nanoTime() - issueTime);
+                    if (isWritePending) {
+                        isWritePending = false;
+                        transferQueue.acknowledgeWrite(writeRegNumber, writeRegCount,
+                                writeRegValue, writeIsLowFirst);
+                    }
+                    onTransferComplete(rCache[REG_NUMBER], rCache[REG_COUNT], rCache, DATA_OFFSET);
+                }
+                executeCommands();
+            } else {
+                dev.readI2cCacheFromController();
+            }
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    private void executeCommands() {
+        //The transfer queue is lock free, the cache locks are only needed for the cache copy
+        if (transferQueue.remove()) {
+            if (transferQueue.mode == READ_MODE) {
+                issueRead(transferQueue.regNumber, transferQueue.regCount);
+            } else {
+                if (transferQueue.isCoalesced) {
+                    isWritePending = true;
+                    writeRegNumber = transferQueue.regNumber;
+                    writeRegCount = transferQueue.regCount;
+                    writeRegValue = transferQueue.regValue;
+                    writeIsLowFirst = transferQueue.isLowFirst;
+                }
+                issueWrite(transferQueue.regNumber, transferQueue.regCount,
+                        transferQueue.regValue, transferQueue.isLowFirst);
+            }
+        } else {
+            onQueueEmpty();
+        }
+    }
+
+    protected final void issueRead(byte regNumber, byte regCount) {
+        try {
+            wLock.lock();
+            wCache[CACHE_MODE] = READ_MODE;
+            wCache[DEV_ADDR] = devAddr;
+            wCache[REG_NUMBER] = regNumber;
+            wCache[REG_COUNT] = regCount;
+            wCache[ACTION_FLAG] = -1;
+        } finally {
+            wLock.unlock();
+        }
+        sendTransfer();
+    }
+
+    protected final void issueWrite(byte regNumber, byte regCount, long regValue,
+                                    boolean isLowFirst) {
+        try {
+            wLock.lock();
+            wCache[CACHE_MODE] = WRITE_MODE;
+            wCache[DEV_ADDR] = devAddr;
+            wCache[REG_NUMBER] = regNumber;
+            wCache[REG_COUNT] = regCount;
+            if (regCount == 1) {
+                wCache[DATA_OFFSET] = (byte) (regValue & 0xFF);
+            } else if (isLowFirst) {
+                for (int i = 0; i < regCount; i++) {
+                    wCache[DATA_OFFSET + i] = (byte) (regValue & 0xFF);
+                    regValue >>= 8;
+                }
+            } else {
+                for (int i = regCount - 1; i >= 0; i--) {
+                    wCache[DATA_OFFSET + i] = (byte) (regValue & 0xFF);
+                    regValue >>= 8;
+                }
+            }
+            wCache[ACTION_FLAG] = -1;
+        } finally {
+            wLock.unlock();
+        }
+        sendTransfer();
+    }
+
+    //Write regCount bytes of data starting at offset, for devices that pack their own data
+    protected final void issueWrite(byte regNumber, byte regCount, byte[] data, int offset) {
+        try {
+            wLock.lock();
+            wCache[CACHE_MODE] = WRITE_MODE;
+            wCache[DEV_ADDR] = devAddr;
+            wCache[REG_NUMBER] = regNumber;
+            wCache[REG_COUNT] = regCount;
+            System.arraycopy(data, offset, wCache, DATA_OFFSET, regCount);
+            wCache[ACTION_FLAG] = -1;
+        } finally {
+            wLock.unlock();
+        }
+        sendTransfer();
+    }
+
+    private void sendTransfer() {
+        isTransferPending = true;
+        issueTime = ControlClock.nanoTime();
+        dev.writeI2cCacheToController();
+    }
+
+    private void recordTransaction(long latency) {
+        if (isResetRequested) {
+            isResetRequested = false;
+            statsStartTime = ControlClock.nanoTime();
+            transactionCount = 0;
+            latencySum = 0;
+            latencyMax = 0;
+            return;
+        }
+        latencySum += latency;
+        if (latency > latencyMax) latencyMax = latency;
+        transactionCount++;
+    }
+
+    //Requests are only queued from the op mode thread, so they never wait on the cache locks
+    protected boolean addReadRequest(byte regNumber, byte regCount) {
+        return transferQueue.addRead(regNumber, regCount);
+    }
+
+    //Register writes are coalesced, only the latest value of a register is sent and a write of
+    //the value the register already holds is dropped
+    protected boolean addWriteRequest(byte regNumber, byte regCount, long regValue,
+                                      boolean isLowFirst) {
+        return transferQueue.addCoalescedWrite(regNumber, regCount, regValue, isLowFirst);
+    }
+
+    //Single byte command, used by devices like the HT16K33 where the register is the command
+    protected boolean addCommandRequest(byte command) {
+        return transferQueue.addCommand(command);
+    }
+
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public double getTransactionsPerSecond() {
+        double seconds = (ControlClock.nanoTime() - statsStartTime) / 1e9;
+        if (seconds <= 0) return 0;
+        return transactionCount / seconds;
+    }
+
+    //Mean time from writing the cache to the controller until the transfer comes back
+    public double getMeanLatencyMs() {
+        long count = transactionCount;
+        if (count == 0) return 0;
+        return (latencySum / (double) count) / 1e6;
+    }
+
+    public double getMaxLatencyMs() {
+        return latencyMax / 1e6;
+    }
+
+    //The counters are cleared by the callback thread on the next transaction
+    public void resetStatistics() {
+        isResetRequested = true;
+    }
+
+    //Number of transfers dropped because the transfer queue was full
+    public int getDroppedTransferCount() {
+        return transferQueue.getOverflowCount();
+    }
+
+    public int getCoalescedWriteCount() {
+        return transferQueue.getCoalescedCount();
+    }
+
+    public int getUnchangedWriteCount() {
+        return transferQueue.getUnchangedCount();
+    }
+
+    //Transactions that coalescing and the register shadows kept off of the bus
+    public int getSavedTransactionCount() {
+        return transferQueue.getCoalescedCount() + transferQueue.getUnchangedCount();
+    }
+}
@@ -0,0 +1,215 @@
+package org.steelhead.ftc;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size ring of i2c transfers for the register drivers. The transfer fields are kept in
+ * parallel primitive arrays so queueing a register access never allocates, and a full ring drops
+ * the new transfer and counts it instead of growing.
+ *
+ * The ring is lock free for one producer (the op mode thread calling the driver setters) and one
+ * consumer (the port ready callback). The producer only writes tail and the consumer only writes
+ * head; a slot is filled before tail is published and read before head is released.
+ *
+ * Coalesced writes only hold a slot per register. A second write to a register that is still
+ * queued just replaces the pending value, which the consumer picks up when it takes the slot.
+ * A write of the value the register already has (the shadow of the last acknowledged write)
+ * is dropped as long as no other write to that register is queued or in flight. A register is
+ * expected to always be written with the same byte count and order.
+ */
+
+public class I2cTransferRing {
+    static final byte
+        READ_MODE   = 0x00 - 128,   //MSB = 1
+        WRITE_MODE  = 0x00;         //MSB = 0
+
+    private static final byte
+        FLAG_LOW_FIRST  = 0x01,     //Write the value low byte first
+        FLAG_COMMAND    = 0x02,     //Command only transfer, the register byte is the command
+        FLAG_COALESCED  = 0x04;     //Slot is shared by all writes to the register while queued
+
+    private static final int REGISTER_COUNT = 256;
+
+    public static final int DEFAULT_SIZE = 16;
+
+    private final byte[]    modes;
+    private final byte[]    regNumbers;
+    private final byte[]    regCounts;
+    private final long[]    regValues;
+    private final byte[]    flags;
+    private final int       mask;
+    private volatile int    head;
+    private volatile int    tail;
+    private volatile int    overflowCount;
+
+    //Per register coalescing state, indexed by the unsigned register number
+    private final AtomicIntegerArray    isQueued        = new AtomicIntegerArray(REGISTER_COUNT);
+    private final AtomicLongArray       pendingValues   = new AtomicLongArray(REGISTER_COUNT);
+    private final AtomicIntegerArray    pendingWrites   = new AtomicIntegerArray(REGISTER_COUNT);
+    private final AtomicLongArray       shadowValues    = new AtomicLongArray(REGISTER_COUNT);
+    private final AtomicIntegerArray    shadowFormats   = new AtomicIntegerArray(REGISTER_COUNT);
+    private volatile int    coalescedCount;
+    private volatile int    unchangedCount;
+
+    //Fields of the last transfer taken off of the ring by remove()
+    public byte     mode;
+    public byte     regNumber;
+    public byte     regCount;
+    public long     regValue;       //write up to 8 bytes
+    public boolean  isLowFirst;     //true = Low Byte first, False Low Byte Last
+    public boolean  isCommand;
+    public boolean  isCoalesced;
+
+    public I2cTransferRing() {
+        this(DEFAULT_SIZE);
+    }
+
+    //The size is rounded up to a power of two so the index wrap is a mask
+    public I2cTransferRing(int size) {
+        int capacity = 2;
+        while (capacity < size) capacity <<= 1;
+
+        modes       = new byte[capacity];
+        regNumbers  = new byte[capacity];
+        regCounts   = new byte[capacity];
+        regValues   = new long[capacity];
+        flags       = new byte[capacity];
+        mask        = capacity - 1;
+        head        = 0;
+        tail        = 0;
+    }
+
+    public boolean addRead(byte regNumber, byte regCount) {
+        return add(READ_MODE, regNumber, regCount, 0, (byte) 0);
+    }
+
+    public boolean addWrite(byte regNumber, byte regCount, long regValue, boolean isLowFirst) {
+        return add(WRITE_MODE, regNumber, regCount, regValue, isLowFirst ? FLAG_LOW_FIRST : 0);
+    }
+
+    public boolean addCommand(byte command) {
+        return add(WRITE_MODE, command, (byte) 1, 0, FLAG_COMMAND);
+    }
+
+    //Producer side only. Queue a register write that merges with a queued write to the same
+    //register, or is dropped if the register already holds the value.
+    public boolean addCoalescedWrite(byte regNumber, byte regCount, long regValue,
+                                     boolean isLowFirst) {
+        int reg = regNumber & 0xFF;
+        if (pendingWrites.get(reg) == 0 && shadowFormats.get(reg) == format(regCount, isLowFirst)
+                && shadowValues.get(reg) == regValue) {
+            unchangedCount++;
+            return true;
+        }
+        //The value has to be in place before the queued check so the consumer can't miss it
+        pendingValues.set(reg, regValue);
+        if (!isQueued.compareAndSet(reg, 0, 1)) {
+            coalescedCount++;
+            return true;
+        }
+        pendingWrites.incrementAndGet(reg);
+        byte flag = (byte) (FLAG_COALESCED | (isLowFirst ? FLAG_LOW_FIRST : 0));
+        if (!add(WRITE_MODE, regNumber, regCount, 0, flag)) {
+            pendingWrites.decrementAndGet(reg);
+            isQueued.set(reg, 0);
+            return false;
+        }
+        return true;
+    }
+
+    //Consumer side only. Record that a coalesced write reached the device
+    public void acknowledgeWrite(byte regNumber, byte regCount, long regValue,
+                                 boolean isLowFirst) {
+        int reg = regNumber & 0xFF;
+        shadowValues.set(reg, regValue);
+        shadowFormats.set(reg, format(regCount, isLowFirst));
+        pendingWrites.decrementAndGet(reg);
+    }
+
+    //Forget the register shadows, e.g. after the device lost power
+    public void invalidateShadows() {
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            shadowFormats.set(i, 0);
+        }
+    }
+
+    //Zero means the shadow is unknown, a write always has at least one byte
+    private static int format(byte regCount, boolean isLowFirst) {
+        return (regCount & 0xFF) | (isLowFirst ? 0x100 : 0);
+    }
+
+    //Producer side only
+    private boolean add(byte mode, byte regNumber, byte regCount, long regValue, byte flag) {
+        int t = tail;
+        if (t - head > mask) {
+            overflowCount++;
+            return false;
+        }
+        int slot = t & mask;
+        modes[slot]         = mode;
+        regNumbers[slot]    = regNumber;
+        regCounts[slot]     = regCount;
+        regValues[slot]     = regValue;
+        flags[slot]         = flag;
+        //Publish the slot to the consumer
+        tail = t + 1;
+        return true;
+    }
+
+    //Consumer side only. Copy the oldest transfer into the public fields, returns false if the
+    //ring is empty
+    public boolean remove() {
+        int h = head;
+        if (h == tail) return false;
+        int slot = h & mask;
+        mode        = modes[slot];
+        regNumber   = regNumbers[slot];
+        regCount    = regCounts[slot];
+        regValue    = regValues[slot];
+        isLowFirst  = (flags[slot] & FLAG_LOW_FIRST) != 0;
+        isCommand   = (flags[slot] & FLAG_COMMAND) != 0;
+        isCoalesced = (flags[slot] & FLAG_COALESCED) != 0;
+        if (isCoalesced) {
+            //Release the register before reading the value, a later write queues a new slot
+            int reg = regNumber & 0xFF;
+            isQueued.set(reg, 0);
+            regValue = pendingValues.get(reg);
+        }
+        //Hand the slot back to the producer
+        head = h + 1;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public int length() {
+        return tail - head;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    //Only call once the consumer has stopped, e.g. after the port callback is deregistered
+    public void clear() {
+        head = tail;
+    }
+
+    //Number of transfers dropped because the ring was full
+    public int getOverflowCount() {
+        return overflowCount;
+    }
+
+    //Number of writes merged into a write that was already queued
+    public int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    //Number of writes dropped because the register already held the value
+    public int getUnchangedCount() {
+        return unchangedCount;
+    }
+}
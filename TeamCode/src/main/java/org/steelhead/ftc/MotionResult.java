@@ -0,0 +1,19 @@
+package org.steelhead.ftc;
+
+/**
+ * How a motion primitive in AutoRobotFunctions ended.
+ */
+
+public enum MotionResult {
+    RUNNING,        //Still going, only returned by MotionWatchdog.check()
+    COMPLETED,      //Reached its target or stop condition
+    STOPPED,        //The op mode was stopped
+    TIMEOUT,        //Hit its deadline
+    STALLED,        //Power was applied but the robot didn't move
+    NO_PROGRESS,    //Moving, but not getting any closer to the target
+    OVERSHOOT;      //Went past the point where it should have stopped
+
+    public boolean isAborted() {
+        return this == TIMEOUT || this == STALLED || this == NO_PROGRESS || this == OVERSHOOT;
+    }
+}
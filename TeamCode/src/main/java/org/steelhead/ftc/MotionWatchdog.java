@@ -0,0 +1,115 @@
+package org.steelhead.ftc;
+
+/**
+ * Watchdog for the motion primitives. Each loop the primitive hands it the values it already has
+ * (encoder position, heading, commanded power and how far it still has to go) and the watchdog
+ * says if the move should be given up:
+ *   - TIMEOUT when the deadline has passed
+ *   - STALLED when at least the stall power is commanded but neither the encoder nor the heading
+ *     has moved enough for the stall time, e.g. the robot is pinned
+ *   - NO_PROGRESS when the distance left hasn't gone down for the progress window
+ * It does no hardware reads and only primitive arithmetic, so checking it every loop is free.
+ */
+
+public class MotionWatchdog {
+    private final long timeoutNs;
+
+    private double stallPower = 0;
+    private double stallCounts = 0;
+    private double stallDegrees = 0;
+    private long stallNs = 0;
+
+    private double minProgress = 0;
+    private long progressNs = 0;
+
+    private long startTime;
+    private MotionResult result = MotionResult.RUNNING;
+
+    //Where the robot was when it last moved and the best distance left so far
+    private boolean isAnchored = false;
+    private double anchorPosition;
+    private double anchorHeading;
+    private long anchorTime;
+    private double bestRemaining;
+    private long bestTime;
+
+    //A timeout of 0 or less means no deadline
+    public MotionWatchdog(long timeoutMs) {
+        timeoutNs = timeoutMs * 1000000L;
+    }
+
+    /*
+     * Stall if |power| >= minPower but the position moved less than counts and the heading less
+     * than degrees within stallMs. A 0 for counts or degrees leaves that axis out.
+     */
+    public MotionWatchdog setStallDetection(double minPower, double counts, double degrees,
+                                            long stallMs) {
+        stallPower = minPower;
+        stallCounts = counts;
+        stallDegrees = degrees;
+        stallNs = stallMs * 1000000L;
+        return this;
+    }
+
+    //No progress if the distance left didn't drop by minProgress within windowMs
+    public MotionWatchdog setProgressDetection(double minProgress, long windowMs) {
+        this.minProgress = minProgress;
+        progressNs = windowMs * 1000000L;
+        return this;
+    }
+
+    //Time is ControlClock.nanoTime()
+    public void start(long time) {
+        startTime = time;
+        result = MotionResult.RUNNING;
+        isAnchored = false;
+        bestRemaining = Double.POSITIVE_INFINITY;
+        bestTime = time;
+    }
+
+    //Returns RUNNING while the move may go on, the reason to stop it otherwise
+    public MotionResult check(double position, double heading, double power, double remaining,
+                              long time) {
+        if (result != MotionResult.RUNNING) return result;
+
+        if (timeoutNs > 0 && time - startTime > timeoutNs) {
+            result = MotionResult.TIMEOUT;
+            return result;
+        }
+
+        if (stallNs > 0) {
+            if (Math.abs(power) < stallPower) {
+                isAnchored = false;
+            } else if (!isAnchored || (stallCounts > 0 &&
+                    Math.abs(position - anchorPosition) >= stallCounts) || (stallDegrees > 0 &&
+                    Math.abs(heading - anchorHeading) >= stallDegrees)) {
+                isAnchored = true;
+                anchorPosition = position;
+                anchorHeading = heading;
+                anchorTime = time;
+            } else if (time - anchorTime > stallNs) {
+                result = MotionResult.STALLED;
+                return result;
+            }
+        }
+
+        if (progressNs > 0) {
+            if (remaining <= bestRemaining - minProgress) {
+                bestRemaining = remaining;
+                bestTime = time;
+            } else if (time - bestTime > progressNs) {
+                result = MotionResult.NO_PROGRESS;
+                return result;
+            }
+        }
+        return result;
+    }
+
+    public MotionResult getResult() {
+        return result;
+    }
+
+    public double getElapsedMs(long time) {
+        return (time - startTime) / 1e6;
+    }
+}
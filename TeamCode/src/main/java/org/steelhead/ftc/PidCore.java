@@ -0,0 +1,152 @@
+package org.steelhead.ftc;
+
+/**
+ * The PID math shared by the controllers. The integral and derivative use the measured time
+ * between updates instead of the nominal loop period, the derivative can go through a first
+ * order low pass filter, the integral stops growing while the output is saturated, and the output
+ * can be slew rate limited. The integral is cleared when the error changes sign, hits zero or leaves
+ * the integral zone.
+ *
+ * It is plain Java with no allocation per update, so it can be driven from a host JVM with
+ * made up timestamps. update() runs on the controller's thread while the gains and limits can be
+ * set from the op mode or a gain schedule, so the settings are volatile and each update reads
+ * them once.
+ */
+
+public class PidCore {
+    //Updates further apart than this are treated as this long so a stall doesn't wind up
+    private static final double MAX_DT = 0.25;
+
+    private volatile double kp;
+    private volatile double ki;
+    private volatile double kd;
+    private volatile double integralZone = Double.POSITIVE_INFINITY;
+    private volatile double derivativeTimeConstant = 0;
+    private volatile double minOutput = Double.NEGATIVE_INFINITY;
+    private volatile double maxOutput = Double.POSITIVE_INFINITY;
+    private volatile double slewRate = 0;
+
+    private boolean isFirstUpdate = true;
+    private long lastTime;
+    private double lastError;
+    private double integral;
+    private double derivative;
+    private double output;
+    private double dt;
+
+    public PidCore(double kp, double ki, double kd) {
+        setPID(kp, ki, kd);
+    }
+
+    public void setPID(double kp, double ki, double kd) {
+        this.kp = kp;
+        this.ki = ki;
+        this.kd = kd;
+    }
+
+    //The integral is cleared whenever |error| is bigger than zone
+    public void setIntegralZone(double zone) {
+        integralZone = zone;
+    }
+
+    //Time constant of the derivative filter in seconds, 0 (the default) turns the filter off
+    public void setDerivativeFilter(double timeConstant) {
+        derivativeTimeConstant = timeConstant;
+    }
+
+    //Limits of the output, the integral stops growing while the output is held at one
+    public void setOutputRange(double minOutput, double maxOutput) {
+        this.minOutput = minOutput;
+        this.maxOutput = maxOutput;
+    }
+
+    //Largest change of the output per second, 0 turns the limit off
+    public void setSlewRate(double slewRate) {
+        this.slewRate = slewRate;
+    }
+
+    //Forget the history, the next update only has a proportional term
+    public void reset() {
+        isFirstUpdate = true;
+        integral = 0;
+        derivative = 0;
+        output = 0;
+        dt = 0;
+    }
+
+    //Calculate the output for an error measured at time (ControlClock.nanoTime())
+    public double update(double error, long time) {
+        double kp = this.kp;
+        double ki = this.ki;
+        double kd = this.kd;
+        double derivativeTimeConstant = this.derivativeTimeConstant;
+        double minOutput = this.minOutput;
+        double maxOutput = this.maxOutput;
+        double slewRate = this.slewRate;
+
+        if (isFirstUpdate) {
+            isFirstUpdate = false;
+            dt = 0;
+            lastError = error;
+        } else {
+            dt = Math.min((time - lastTime) / 1e9, MAX_DT);
+        }
+        lastTime = time;
+
+        if (dt > 0) {
+            double rawDerivative = (error - lastError) / dt;
+            if (derivativeTimeConstant > 0) {
+                derivative += (dt / (derivativeTimeConstant + dt)) * (rawDerivative - derivative);
+            } else {
+                derivative = rawDerivative;
+            }
+        }
+
+        double lastIntegral = integral;
+        integral += error * dt;
+        if ((lastError > 0 && error < 0) || (lastError < 0 && error > 0) || error == 0 ||
+                Math.abs(error) > integralZone) {
+            integral = 0;
+        }
+        lastError = error;
+
+        double result = (kp * error) + (ki * integral) + (kd * derivative);
+
+        //Anti windup, don't let the integral push further into a limit
+        if ((result > maxOutput && error * ki > 0) || (result < minOutput && error * ki < 0)) {
+            if (integral != 0) {
+                result -= ki * (integral - lastIntegral);
+                integral = lastIntegral;
+            }
+        }
+        result = Math.max(minOutput, Math.min(maxOutput, result));
+
+        if (slewRate > 0 && dt > 0) {
+            double maxStep = slewRate * dt;
+            result = Math.max(output - maxStep, Math.min(output + maxStep, result));
+        }
+        output = result;
+        return output;
+    }
+
+    public double getOutput() {
+        return output;
+    }
+
+    public double getError() {
+        return lastError;
+    }
+
+    public double getIntegral() {
+        return integral;
+    }
+
+    public double getDerivative() {
+        return derivative;
+    }
+
+    //Seconds between the last two updates
+    public double getDt() {
+        return dt;
+    }
+}
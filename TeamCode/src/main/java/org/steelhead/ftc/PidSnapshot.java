@@ -0,0 +1,31 @@
+package org.steelhead.ftc;
+
+/**
+ * The state of a PID controller after one calculation. The controller fills in a caller owned
+ * snapshot so reading it doesn't allocate, and every field always comes from the same iteration.
+ */
+
+public class PidSnapshot {
+    public double   output;
+    public double   error;
+    public double   integral;
+    public double   derivative;
+    public boolean  isOnTarget;
+    public long     timestamp;  //ControlClock.nanoTime() of the measurement the output is based on
+    public long     iteration;  //Counts up by one per calculation, 0 = nothing calculated yet
+
+    public void copyFrom(PidSnapshot other) {
+        output      = other.output;
+        error       = other.error;
+        integral    = other.integral;
+        derivative  = other.derivative;
+        isOnTarget  = other.isOnTarget;
+        timestamp   = other.timestamp;
+        iteration   = other.iteration;
+    }
+
+    //Age of the measurement in milliseconds
+    public double ageMs() {
+        return (ControlClock.nanoTime() - timestamp) / 1e6;
+    }
+}
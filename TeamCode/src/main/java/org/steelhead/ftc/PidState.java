@@ -0,0 +1,119 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+/**
+ * What a PID controller shares between its calculating thread and the op mode: the gain schedule
+ * lookup that goes into each calculation and the result that comes out of it. GyroPIDController
+ * and ColorPIDController each keep one next to their PidCore.
+ *
+ * Each calculation is published as one snapshot with a seqlock. The calculating thread makes
+ * lock odd, writes the fields, then makes it even again; a reader retries if the lock was odd or
+ * changed while it copied. outputCount is the iteration number, and waitForOutput() is woken
+ * after every calculation so callers don't have to sleep for the first output.
+ */
+
+public class PidState {
+    private static final double VOLTAGE_FILTER = 0.05;      //The voltage sags with motor load
+
+    private final PidCore pid;
+
+    //Optional gain schedule, the gains are looked up every calculation from the filtered battery
+    //voltage and the commanded speed
+    private volatile GainSchedule gainSchedule = null;
+    private volatile VoltageSensor batVolt = null;
+    private volatile double commandedSpeed = 0;
+    private double filteredVoltage = 0;
+
+    private final Object outputSignal = new Object();
+    private volatile long outputCount = 0;
+
+    private volatile int     lock       = 0;
+    private volatile double  output     = 0;
+    private volatile double  error      = 0;
+    private volatile double  integral   = 0;
+    private volatile double  derivative = 0;
+    private volatile boolean isOnTarget = false;
+    private volatile long    time       = 0;
+
+    public PidState(PidCore pid) {
+        this.pid = pid;
+    }
+
+    //Look the gains up in schedule every calculation instead of using the ones from setPID
+    public void setGainSchedule(GainSchedule schedule, VoltageSensor batVolt) {
+        this.batVolt = batVolt;
+        this.gainSchedule = schedule;
+    }
+
+    //Speed used for the gain schedule lookup, e.g. the drive speed
+    public void setCommandedSpeed(double speed) {
+        commandedSpeed = speed;
+    }
+
+    //Set the PID gains from the schedule, called on the calculating thread before each update
+    public void scheduleGains() {
+        GainSchedule schedule = gainSchedule;
+        if (schedule == null) return;
+        double voltage = batVolt.getVoltage();
+        if (filteredVoltage == 0) {
+            filteredVoltage = voltage;
+        } else {
+            filteredVoltage += VOLTAGE_FILTER * (voltage - filteredVoltage);
+        }
+        schedule.apply(filteredVoltage, commandedSpeed, pid);
+    }
+
+    //Publish a calculation, the integral and derivative are the PID's after its update
+    public void publish(double output, double error, boolean isOnTarget, long time) {
+        lock++;
+        this.output = output;
+        this.error = error;
+        integral = pid.getIntegral();
+        derivative = pid.getDerivative();
+        this.isOnTarget = isOnTarget;
+        this.time = time;
+        outputCount++;
+        lock++;
+        synchronized (outputSignal) {
+            outputSignal.notifyAll();
+        }
+    }
+
+    //Block until a calculation has been published, returns false on timeout
+    public boolean waitForOutput(int timeoutMs) throws InterruptedException {
+        long deadline = ControlClock.nanoTime() + timeoutMs * 1000000L;
+        synchronized (outputSignal) {
+            while (outputCount == 0) {
+                long remaining = (deadline - ControlClock.nanoTime()) / 1000000L;
+                if (remaining <= 0) return false;
+                outputSignal.wait(ControlClock.toWallMillis(remaining));
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Copy the latest calculation into snapshot. Returns true if it is a newer iteration than the
+     * one the snapshot held, so a caller reusing one snapshot can tell if it already acted on it.
+     */
+    public boolean getSnapshot(PidSnapshot snapshot) {
+        long lastIteration = snapshot.iteration;
+        int start;
+        do {
+            start = lock;
+            while ((start & 1) != 0) {
+                Thread.yield();
+                start = lock;
+            }
+            snapshot.output = output;
+            snapshot.error = error;
+            snapshot.integral = integral;
+            snapshot.derivative = derivative;
+            snapshot.isOnTarget = isOnTarget;
+            snapshot.timestamp = time;
+            snapshot.iteration = outputCount;
+        } while (start != lock);
+        return snapshot.iteration != lastIteration;
+    }
+}
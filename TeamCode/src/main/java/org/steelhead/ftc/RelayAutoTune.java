@@ -0,0 +1,97 @@
+package org.steelhead.ftc;
+
+/**
+ * Analysis of a relay feedback experiment. With the controller output switched between +d and -d
+ * on the sign of the error the loop settles into a steady oscillation; its period is the ultimate
+ * period Tu and its amplitude a gives the ultimate gain Ku = 4d / (pi * sqrt(a^2 - h^2)), h being
+ * the relay hysteresis. The suggested gains use the classic Ziegler-Nichols PID rules.
+ *
+ * It only works on a recorded trace of times and errors, so a trace saved from the robot can be
+ * analysed again on a host JVM.
+ */
+
+public class RelayAutoTune {
+    //The first oscillations are the robot getting into the limit cycle, they are skipped
+    private static final int SKIPPED_CROSSINGS = 2;
+    private static final int MIN_CYCLES = 2;
+
+    private final double relayAmplitude;
+    private final double hysteresis;
+
+    //Results of the last analyze()
+    public int      cycles;
+    public double   amplitude;          //Half of the peak to peak error
+    public double   ultimatePeriod;     //Seconds
+    public double   ultimateGain;
+    public double   kp;
+    public double   ki;
+    public double   kd;
+
+    public RelayAutoTune(double relayAmplitude, double hysteresis) {
+        this.relayAmplitude = relayAmplitude;
+        this.hysteresis = hysteresis;
+    }
+
+    /*
+     * Analyse the first count samples of a trace, times are in seconds. Returns false if the
+     * trace doesn't have enough steady oscillation cycles.
+     */
+    public boolean analyze(double[] times, double[] errors, int count) {
+        cycles = 0;
+        amplitude = 0;
+        ultimatePeriod = 0;
+        ultimateGain = 0;
+        kp = 0;
+        ki = 0;
+        kd = 0;
+
+        //Upward zero crossings of the error, the time is interpolated between the samples
+        int crossings = 0;
+        double firstCrossing = 0;
+        double lastCrossing = 0;
+        int firstIndex = 0;
+        int lastIndex = 0;
+        for (int i = 1; i < count; i++) {
+            if (errors[i - 1] < 0 && errors[i] >= 0) {
+                crossings++;
+                if (crossings <= SKIPPED_CROSSINGS) continue;
+                double f = -errors[i - 1] / (errors[i] - errors[i - 1]);
+                double time = times[i - 1] + f * (times[i] - times[i - 1]);
+                if (crossings == SKIPPED_CROSSINGS + 1) {
+                    firstCrossing = time;
+                    firstIndex = i;
+                }
+                lastCrossing = time;
+                lastIndex = i;
+            }
+        }
+        cycles = Math.max(crossings - SKIPPED_CROSSINGS - 1, 0);
+        if (cycles < MIN_CYCLES) return false;
+
+        double max = Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = firstIndex; i < lastIndex; i++) {
+            if (errors[i] > max) max = errors[i];
+            if (errors[i] < min) min = errors[i];
+        }
+        amplitude = (max - min) / 2;
+        if (amplitude <= hysteresis) return false;
+
+        ultimatePeriod = (lastCrossing - firstCrossing) / cycles;
+        ultimateGain = 4 * relayAmplitude /
+                (Math.PI * Math.sqrt(amplitude * amplitude - hysteresis * hysteresis));
+
+        kp = 0.6 * ultimateGain;
+        ki = 1.2 * ultimateGain / ultimatePeriod;
+        kd = 0.075 * ultimateGain * ultimatePeriod;
+        return true;
+    }
+
+    public double getRelayAmplitude() {
+        return relayAmplitude;
+    }
+
+    public double getHysteresis() {
+        return hysteresis;
+    }
+}
@@ -0,0 +1,52 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.hardware.modernrobotics.ModernRoboticsI2cGyro;
+import com.qualcomm.robotcore.hardware.ColorSensor;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.TouchSensor;
+
+/**
+ * The sensor values of one control loop tick. read() only goes to the sensors in the mask, each
+ * one once, and everything in the tick (stop conditions, controllers, the watchdog) uses the
+ * values from here instead of reading the hardware again.
+ */
+
+public class SensorFrame {
+    public static final int COLOR   = 1;    //Line color sensor alpha
+    public static final int ENCODER = 2;    //Right drive encoder
+    public static final int TOUCH   = 4;    //Beacon touch sensor
+    public static final int HEADING = 8;    //Gyro integrated Z
+
+    private final ColorSensor color;
+    private final DcMotor encoderMotor;
+    private final TouchSensor touchSensor;
+    private final ModernRoboticsI2cGyro gyro;
+
+    public int      alpha       = 0;
+    public int      position    = 0;
+    public boolean  isPressed   = false;
+    public int      heading     = 0;
+    public long     timestamp   = 0;        //ControlClock.nanoTime() of the read
+    public int      sensors     = 0;        //Mask of the values read this tick
+
+    public SensorFrame(ColorSensor color, DcMotor encoderMotor, TouchSensor touchSensor,
+                       ModernRoboticsI2cGyro gyro) {
+        this.color = color;
+        this.encoderMotor = encoderMotor;
+        this.touchSensor = touchSensor;
+        this.gyro = gyro;
+    }
+
+    public SensorFrame(HardwareSteelheadMainBot robot) {
+        this(robot.color, robot.rightMotor, robot.touchSensor, robot.gyro);
+    }
+
+    public void read(int mask) {
+        if ((mask & COLOR) != 0) alpha = color.alpha();
+        if ((mask & ENCODER) != 0) position = encoderMotor.getCurrentPosition();
+        if ((mask & TOUCH) != 0) isPressed = touchSensor.isPressed();
+        if ((mask & HEADING) != 0) heading = gyro.getIntegratedZValue();
+        sensors = mask;
+        timestamp = ControlClock.nanoTime();
+    }
+}
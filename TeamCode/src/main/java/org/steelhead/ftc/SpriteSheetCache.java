@@ -0,0 +1,137 @@
+package org.steelhead.ftc;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of bitmap strips decoded for the 8x8 led matrix. A strip is a row of 8x8 frames; each
+ * frame is decoded once into eight HT16K33 row words plus eight masks of the pixels the frame
+ * sets, so drawing a frame is a masked copy of eight ints. The least recently used strips are
+ * dropped when the cache goes over its memory bound.
+ */
+
+public class SpriteSheetCache {
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    public static class SpriteSheet {
+        public final int frameCount;
+        final int[] rows;   //Green bits in the low byte and red bits in the high byte
+        final int[] masks;  //Bits the frame writes, other pixels are left as they are
+
+        SpriteSheet(int frameCount) {
+            this.frameCount = frameCount;
+            rows = new int[frameCount * 8];
+            masks = new int[frameCount * 8];
+        }
+
+        int sizeBytes() {
+            return 8 * rows.length;
+        }
+    }
+
+    private final Context context;
+    private final int maxBytes;
+    private int usedBytes = 0;
+    private final LinkedHashMap<Integer, SpriteSheet> sheets =
+            new LinkedHashMap<Integer, SpriteSheet>(8, 0.75f, true);
+
+    public SpriteSheetCache(Context context) {
+        this(context, DEFAULT_MAX_BYTES);
+    }
+
+    public SpriteSheetCache(Context context, int maxBytes) {
+        this.context = context;
+        this.maxBytes = maxBytes;
+    }
+
+    //Get the decoded strip for a drawable resource, decoding it the first time. Throws
+    //IllegalArgumentException if the resource is not a bitmap at least 8 pixels high and wide.
+    public synchronized SpriteSheet get(int id) {
+        SpriteSheet sheet = sheets.get(id);
+        if (sheet == null) {
+            sheet = decode(id);
+            sheets.put(id, sheet);
+            usedBytes += sheet.sizeBytes();
+            trim();
+        }
+        return sheet;
+    }
+
+    public synchronized void clear() {
+        sheets.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized int getUsedBytes() {
+        return usedBytes;
+    }
+
+    //Drop the least recently used strips, the newest one is always kept
+    private void trim() {
+        Iterator<Map.Entry<Integer, SpriteSheet>> it = sheets.entrySet().iterator();
+        while (usedBytes > maxBytes && sheets.size() > 1) {
+            SpriteSheet eldest = it.next().getValue();
+            it.remove();
+            usedBytes -= eldest.sizeBytes();
+        }
+    }
+
+    private SpriteSheet decode(int id) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), id, options);
+        if (bitmap == null) {
+            throw new IllegalArgumentException(String.format(
+                    "Resource 0x%08x is not a bitmap", id));
+        }
+        if (bitmap.getHeight() < 8 || bitmap.getWidth() < 8) {
+            String size = bitmap.getWidth() + "x" + bitmap.getHeight();
+            bitmap.recycle();
+            throw new IllegalArgumentException(String.format(
+                    "Bitmap 0x%08x is %s, a strip needs 8x8 frames", id, size));
+        }
+
+        int width = bitmap.getWidth();
+        int[] pixels = new int[width * 8];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, 8);
+        bitmap.recycle();
+
+        SpriteSheet sheet = new SpriteSheet(width / 8);
+        for (int frame = 0; frame < sheet.frameCount; frame++) {
+            for (int y = 0; y < 8; y++) {
+                int row = 0;
+                int mask = 0;
+                for (int x = 0; x < 8; x++) {
+                    int green = 1 << x;
+                    int red = 1 << (x + 8);
+                    switch (pixels[y * width + frame * 8 + x]) {
+                        case Color.WHITE:
+                            mask |= green | red;
+                            break;
+                        case Color.RED:
+                            mask |= green | red;
+                            row |= red;
+                            break;
+                        case Color.GREEN:
+                            mask |= green | red;
+                            row |= green;
+                            break;
+                        case Color.YELLOW:
+                            mask |= green | red;
+                            row |= green | red;
+                            break;
+                    }
+                }
+                sheet.rows[frame * 8 + y] = row;
+                sheet.masks[frame * 8 + y] = mask;
+            }
+        }
+        return sheet;
+    }
+}
@@ -0,0 +1,264 @@
+package org.steelhead.ftc;
+
+/**
+ * When a drive should stop. A condition says which sensors it needs so the loop can read just
+ * those into a SensorFrame once per tick, then check() looks at the frame and returns RUNNING,
+ * COMPLETED or, for the max distance guard, OVERSHOOT.
+ *
+ * Conditions are built from the factory methods and combined with and(), or() and debounce():
+ *      StopCondition.colorAbove(25).debounce(20).or(StopCondition.overshootAt(5500))
+ * Some of them keep state between ticks, call reset() before using one again.
+ */
+
+public abstract class StopCondition {
+
+    //Mask of the SensorFrame values the condition looks at
+    public abstract int getSensors();
+
+    public abstract MotionResult check(SensorFrame frame);
+
+    public void reset() {
+    }
+
+    //Met when both are, an overshoot from either one is still an overshoot
+    public StopCondition and(StopCondition other) {
+        return new All(this, other);
+    }
+
+    //Met when either one is, the first one wins if both are met on the same tick
+    public StopCondition or(StopCondition other) {
+        return new Any(this, other);
+    }
+
+    /*
+     * Only met once it has stayed met for ms, timed with the frame timestamps. The loop ticks far
+     * faster than the sensors update, so a count of ticks would say nothing about the readings.
+     */
+    public StopCondition debounce(int ms) {
+        return new Debounce(this, ms);
+    }
+
+    public static StopCondition never() {
+        return new Never();
+    }
+
+    //Color alpha above the threshold, e.g. the white line
+    public static StopCondition colorAbove(int threshold) {
+        return new ColorAbove(threshold, threshold);
+    }
+
+    /*
+     * Color alpha goes above high, and stays met until it falls back below low. With debounce()
+     * this keeps a reading that flickers around the threshold from restarting the count.
+     */
+    public static StopCondition colorAbove(int high, int low) {
+        return new ColorAbove(high, low);
+    }
+
+    public static StopCondition encoderAtLeast(int counts) {
+        return new EncoderAtLeast(counts, MotionResult.COMPLETED);
+    }
+
+    //The robot went further than it should have, returns OVERSHOOT instead of COMPLETED
+    public static StopCondition overshootAt(int counts) {
+        return new EncoderAtLeast(counts, MotionResult.OVERSHOOT);
+    }
+
+    public static StopCondition buttonPressed() {
+        return new ButtonPressed();
+    }
+
+    /*
+     * The condition for the old StopConditions arguments. A maxEncoderDistance of -1 means no
+     * overshoot guard.
+     */
+    public static StopCondition from(AutoRobotFunctions.StopConditions stopCondition, int stopVal,
+                                     int maxEncoderDistance) {
+        StopCondition condition;
+        switch (stopCondition) {
+            case COLOR:
+                condition = colorAbove(stopVal);
+                break;
+            case ENCODER:
+                condition = encoderAtLeast(stopVal);
+                break;
+            case BUTTON:
+                condition = buttonPressed();
+                break;
+            default:
+                condition = never();
+        }
+        if (maxEncoderDistance != -1) condition = condition.or(overshootAt(maxEncoderDistance));
+        return condition;
+    }
+
+    private static class Never extends StopCondition {
+        @Override
+        public int getSensors() {
+            return 0;
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            return MotionResult.RUNNING;
+        }
+    }
+
+    private static class ColorAbove extends StopCondition {
+        private final int high;
+        private final int low;
+        private boolean isMet = false;
+
+        ColorAbove(int high, int low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public int getSensors() {
+            return SensorFrame.COLOR;
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            if (frame.alpha > high) {
+                isMet = true;
+            } else if (frame.alpha < low || low == high) {
+                isMet = false;
+            }
+            return isMet ? MotionResult.COMPLETED : MotionResult.RUNNING;
+        }
+
+        @Override
+        public void reset() {
+            isMet = false;
+        }
+    }
+
+    private static class EncoderAtLeast extends StopCondition {
+        private final int counts;
+        private final MotionResult result;
+
+        EncoderAtLeast(int counts, MotionResult result) {
+            this.counts = counts;
+            this.result = result;
+        }
+
+        @Override
+        public int getSensors() {
+            return SensorFrame.ENCODER;
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            return frame.position >= counts ? result : MotionResult.RUNNING;
+        }
+    }
+
+    private static class ButtonPressed extends StopCondition {
+        @Override
+        public int getSensors() {
+            return SensorFrame.TOUCH;
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            return frame.isPressed ? MotionResult.COMPLETED : MotionResult.RUNNING;
+        }
+    }
+
+    //Both sides are checked every tick so their debounce and hysteresis state stays current
+    private static class All extends StopCondition {
+        private final StopCondition first;
+        private final StopCondition second;
+
+        All(StopCondition first, StopCondition second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public int getSensors() {
+            return first.getSensors() | second.getSensors();
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            MotionResult a = first.check(frame);
+            MotionResult b = second.check(frame);
+            if (a == MotionResult.RUNNING || b == MotionResult.RUNNING) return MotionResult.RUNNING;
+            return a == MotionResult.COMPLETED ? b : a;
+        }
+
+        @Override
+        public void reset() {
+            first.reset();
+            second.reset();
+        }
+    }
+
+    private static class Any extends StopCondition {
+        private final StopCondition first;
+        private final StopCondition second;
+
+        Any(StopCondition first, StopCondition second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public int getSensors() {
+            return first.getSensors() | second.getSensors();
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            MotionResult a = first.check(frame);
+            MotionResult b = second.check(frame);
+            return a != MotionResult.RUNNING ? a : b;
+        }
+
+        @Override
+        public void reset() {
+            first.reset();
+            second.reset();
+        }
+    }
+
+    private static class Debounce extends StopCondition {
+        private final StopCondition condition;
+        private final long spanNs;
+        private boolean isMet = false;
+        private long metTime = 0;
+
+        Debounce(StopCondition condition, int ms) {
+            this.condition = condition;
+            spanNs = ms * 1000000L;
+        }
+
+        @Override
+        public int getSensors() {
+            return condition.getSensors();
+        }
+
+        @Override
+        public MotionResult check(SensorFrame frame) {
+            MotionResult result = condition.check(frame);
+            if (result == MotionResult.RUNNING) {
+                isMet = false;
+                return result;
+            }
+            if (!isMet) {
+                isMet = true;
+                metTime = frame.timestamp;
+            }
+            return frame.timestamp - metTime >= spanNs ? result : MotionResult.RUNNING;
+        }
+
+        @Override
+        public void reset() {
+            condition.reset();
+            isMet = false;
+        }
+    }
+}
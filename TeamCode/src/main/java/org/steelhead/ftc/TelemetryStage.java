@@ -0,0 +1,129 @@
+package org.steelhead.ftc;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Telemetry for the motion loops without the cost of telemetry in the loop. The loop writes
+ * numbers and fixed strings into slots, which only stores a value, and a task on the background
+ * thread copies the slots to the driver station telemetry and sends it a few times a second. The
+ * boxing, formatting and sending all happen on the background thread.
+ *
+ *      TelemetryStage display = new TelemetryStage(telemetry, 4);
+ *      int yaw = display.addSlot("Yaw");
+ *      display.start();
+ *      while (...) display.set(yaw, heading);
+ *      display.stop();
+ *
+ * Slots are added before the first start(). A slot that was never set isn't shown, and slots keep
+ * their values when the stage is stopped and started again.
+ */
+
+public class TelemetryStage {
+    private final Telemetry telemetry;
+    private final long periodMs;
+
+    private final ArrayList<String> captions = new ArrayList<String>();
+    private final ArrayList<String> formats = new ArrayList<String>();
+    private AtomicLongArray numbers;
+    private AtomicReferenceArray<String> texts;
+
+    private ControlScheduler.ControlLoop flushLoop = null;
+    private boolean isStopped = false;      //Guarded by this
+
+    public TelemetryStage(Telemetry telemetry, double rateHz) {
+        this.telemetry = telemetry;
+        periodMs = Math.max(1, Math.round(1000 / rateHz));
+    }
+
+    //Returns the index to set() the slot with
+    public int addSlot(String caption) {
+        return addSlot(caption, null);
+    }
+
+    //A slot shown with a format for its number, e.g. "%.2f"
+    public int addSlot(String caption, String format) {
+        if (numbers != null) {
+            throw new IllegalStateException("Slots are added before the first start()");
+        }
+        captions.add(caption);
+        formats.add(format);
+        return captions.size() - 1;
+    }
+
+    public void set(int slot, double value) {
+        numbers.lazySet(slot, Double.doubleToRawLongBits(value));
+        texts.lazySet(slot, null);
+    }
+
+    //The text isn't copied, pass constants so the loop doesn't build strings
+    public void set(int slot, String text) {
+        texts.lazySet(slot, text);
+    }
+
+    //Hide the slot again until it is next set
+    public void clear(int slot) {
+        texts.lazySet(slot, null);
+        numbers.lazySet(slot, Double.doubleToRawLongBits(Double.NaN));
+    }
+
+    public void start() {
+        if (flushLoop != null) return;
+        if (numbers == null) {
+            numbers = new AtomicLongArray(captions.size());
+            texts = new AtomicReferenceArray<String>(captions.size());
+            for (int i = 0; i < captions.size(); i++) {
+                numbers.set(i, Double.doubleToRawLongBits(Double.NaN));
+            }
+        }
+        synchronized (this) {
+            isStopped = false;
+        }
+        flushLoop = ControlScheduler.getInstance().scheduleBackground(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (TelemetryStage.this) {
+                    if (!isStopped) flush();
+                }
+            }
+        }, periodMs);
+    }
+
+    /*
+     * Stop the background task and send the last values. Cancelling doesn't wait for a flush the
+     * background thread is already in, so this waits for it to finish, and a flush that starts
+     * after this returns sends nothing.
+     */
+    public void stop() {
+        if (flushLoop == null) return;
+        flushLoop.cancel();
+        flushLoop = null;
+        synchronized (this) {
+            isStopped = true;
+            flush();
+        }
+    }
+
+    //Called holding the lock
+    private void flush() {
+        boolean isEmpty = true;
+        for (int i = 0; i < captions.size(); i++) {
+            String text = texts.get(i);
+            double value = Double.longBitsToDouble(numbers.get(i));
+            if (text != null) {
+                telemetry.addData(captions.get(i), text);
+            } else if (Double.isNaN(value)) {
+                continue;
+            } else if (formats.get(i) != null) {
+                telemetry.addData(captions.get(i), formats.get(i), value);
+            } else {
+                telemetry.addData(captions.get(i), value);
+            }
+            isEmpty = false;
+        }
+        if (!isEmpty) telemetry.update();
+    }
+}
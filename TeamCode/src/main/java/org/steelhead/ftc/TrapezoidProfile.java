@@ -0,0 +1,91 @@
+package org.steelhead.ftc;
+
+/**
+ * Trapezoidal motion profile from a start to an end position. The setpoint speeds up at the
+ * maximum acceleration, cruises at the maximum velocity and slows down again so it arrives at
+ * the end with no velocity. Short moves that can't reach the maximum velocity get a triangular
+ * profile. Units are up to the caller, e.g. degrees and seconds for a turn.
+ */
+
+public class TrapezoidProfile {
+    private final double start;
+    private final double direction;
+    private final double distance;
+    private final double maxAcceleration;
+    private final double peakVelocity;
+    private final double accelTime;
+    private final double cruiseTime;
+    private final double totalTime;
+
+    public TrapezoidProfile(double start, double end, double maxVelocity,
+                            double maxAcceleration) {
+        if (maxVelocity <= 0 || maxAcceleration <= 0) {
+            throw new IllegalArgumentException("Profile velocity and acceleration must be positive");
+        }
+        this.start = start;
+        this.direction = end >= start ? 1 : -1;
+        this.distance = Math.abs(end - start);
+        this.maxAcceleration = maxAcceleration;
+
+        double t = maxVelocity / maxAcceleration;
+        if (maxAcceleration * t * t > distance) {
+            //Triangular, the move is over before reaching the maximum velocity
+            accelTime = Math.sqrt(distance / maxAcceleration);
+            peakVelocity = maxAcceleration * accelTime;
+            cruiseTime = 0;
+        } else {
+            accelTime = t;
+            peakVelocity = maxVelocity;
+            cruiseTime = (distance - maxAcceleration * t * t) / maxVelocity;
+        }
+        totalTime = 2 * accelTime + cruiseTime;
+    }
+
+    //Setpoint position t seconds into the profile
+    public double position(double t) {
+        double d;
+        if (t <= 0) {
+            d = 0;
+        } else if (t < accelTime) {
+            d = 0.5 * maxAcceleration * t * t;
+        } else if (t < accelTime + cruiseTime) {
+            d = 0.5 * peakVelocity * accelTime + peakVelocity * (t - accelTime);
+        } else if (t < totalTime) {
+            double left = totalTime - t;
+            d = distance - 0.5 * maxAcceleration * left * left;
+        } else {
+            d = distance;
+        }
+        return start + direction * d;
+    }
+
+    public double velocity(double t) {
+        double v;
+        if (t <= 0 || t >= totalTime) {
+            v = 0;
+        } else if (t < accelTime) {
+            v = maxAcceleration * t;
+        } else if (t < accelTime + cruiseTime) {
+            v = peakVelocity;
+        } else {
+            v = maxAcceleration * (totalTime - t);
+        }
+        return direction * v;
+    }
+
+    public double acceleration(double t) {
+        if (t <= 0 || t >= totalTime) return 0;
+        if (t < accelTime) return direction * maxAcceleration;
+        if (t < accelTime + cruiseTime) return 0;
+        return -direction * maxAcceleration;
+    }
+
+    //Seconds from the start to the end of the profile
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    public boolean isFinished(double t) {
+        return t >= totalTime;
+    }
+}
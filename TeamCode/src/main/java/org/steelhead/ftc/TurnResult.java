@@ -0,0 +1,20 @@
+package org.steelhead.ftc;
+
+/**
+ * How a gyro turn went, returned by AutoRobotFunctions.MRRotate so turns can be compared.
+ */
+
+public class TurnResult {
+    public boolean  isSettled   = false;    //Reached the tolerance before the timeout
+    public boolean  isTimedOut  = false;
+    public MotionResult motion  = MotionResult.STOPPED;     //Why the turn ended
+    public double   settleTimeMs = 0;       //From the start of the turn until it was on target
+    public int      overshoot   = 0;        //Furthest the heading went past the target, degrees
+    public int      finalError  = 0;        //Heading minus target when the turn ended, degrees
+
+    @Override
+    public String toString() {
+        return String.format("settled: %b | time: %.0f ms | overshoot: %d | error: %d | result: %s",
+                isSettled, settleTimeMs, overshoot, finalError, motion);
+    }
+}
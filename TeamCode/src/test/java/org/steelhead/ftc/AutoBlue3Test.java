@@ -0,0 +1,36 @@
+package org.steelhead.ftc;
+
+import org.firstinspires.ftc.teamcode.AutoBlue3;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs AutoBlue3 on SimRobot on the blue side of the Velocity Vortex field. The simulation runs
+ * four times faster than real time, so the whole routine takes under ten seconds on the host.
+ *
+ * Run with ./gradlew :TeamCode:testDebugUnitTest
+ */
+
+public class AutoBlue3Test {
+    private static final double RATE = 4;
+    private static final long INIT_MS = 1500;           //Gyro calibration
+    private static final long TIMEOUT_MS = 40000;       //The autonomous period with some margin
+
+    @Test
+    public void pushesBothBeacons() throws InterruptedException {
+        SimRobot sim = new SimRobot().setRate(RATE);
+        //Line sensor just ahead of the wheels, so it is still over the tape after the turn
+        //onto the line
+        sim.model.setSensorPositions(0.05, 0, 0.23, 0);
+        VelocityVortexField.setUp(sim, VelocityVortexField.Alliance.BLUE);
+
+        SimOpModeRunner runner = new SimOpModeRunner(sim, new AutoBlue3(), new SimContext());
+        assertTrue("AutoBlue3 still running after " + TIMEOUT_MS + " ms",
+                runner.run(INIT_MS, TIMEOUT_MS));
+        //Both beacons are pushed with the touch sensor against the wall, a missed line ends
+        //the routine without touching the wall at all
+        assertEquals("Beacons pushed", 2, sim.model.getTouchCount());
+    }
+}
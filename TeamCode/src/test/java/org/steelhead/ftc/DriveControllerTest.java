@@ -0,0 +1,75 @@
+package org.steelhead.ftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DriveController on a perfect drive that moves exactly as commanded.
+ */
+
+public class DriveControllerTest {
+    private static final double DISTANCE = 4000;
+    private static final double MAX_VELOCITY = 2000;        //Counts/s
+    private static final double MAX_ACCELERATION = 4000;    //Counts/s^2
+    private static final double MIN_POWER = 0.15;
+    private static final double MAX_POWER = 0.75;
+    private static final long TICK_NS = 10000000L;
+
+    private DriveController newController() {
+        DriveController controller = new DriveController(DISTANCE, MAX_VELOCITY,
+                MAX_ACCELERATION, MIN_POWER, MAX_POWER);
+        controller.start(0);
+        return controller;
+    }
+
+    @Test
+    public void rampsUpCruisesAndSlowsDownToTheDistance() {
+        DriveController controller = newController();
+        double position = 0;
+        double maxVelocity = 0;
+        long time = 0;
+        while (position < DISTANCE) {
+            time += TICK_NS;
+            controller.update(position, 0, time);
+            double velocity = controller.getVelocity();
+            assertTrue("Velocity above the maximum", velocity <= MAX_VELOCITY + 1e-9);
+            maxVelocity = Math.max(maxVelocity, velocity);
+            position += Math.max(velocity, 1) * TICK_NS / 1e9;
+        }
+        assertEquals("Cruise velocity", MAX_VELOCITY, maxVelocity, 1e-6);
+        //Accelerating to 2000 and back down takes 1 s, cruising the other 3000 counts 1.5 s
+        assertEquals("Drive time", 2.5, time / 1e9, 0.05);
+        assertTrue("Still behind at the end", controller.getMaxDistanceError() < 50);
+    }
+
+    @Test
+    public void keepsToThePowerRange() {
+        DriveController controller = newController();
+        controller.update(0, 0, 0);
+        assertEquals("Power at the start", MIN_POWER, controller.getForwardPower(), 1e-9);
+
+        controller.update(2000, 0, 1000000000L);
+        assertEquals("Cruise power", MAX_POWER, controller.getForwardPower(), 1e-9);
+
+        //Past the distance it creeps on at the minimum so a stop condition can end the move
+        controller.update(DISTANCE + 100, 0, 3000000000L);
+        assertEquals("Creep power", MIN_POWER, controller.getForwardPower(), 1e-9);
+        assertEquals("Left power", MIN_POWER, controller.leftPower, 1e-9);
+        assertEquals("Right power", MIN_POWER, controller.rightPower, 1e-9);
+    }
+
+    @Test
+    public void limitsTheHeadingCorrection() {
+        DriveController controller = newController();
+        controller.setSteerFraction(0.5);
+        controller.update(DISTANCE + 100, 1.0, 0);
+        assertEquals("Steer", MIN_POWER * 0.5, controller.getSteer(), 1e-9);
+        assertEquals("Left power", MIN_POWER * 1.5, controller.leftPower, 1e-9);
+        assertEquals("Right power", MIN_POWER * 0.5, controller.rightPower, 1e-9);
+
+        controller.update(DISTANCE + 100, -0.01, 0);
+        assertEquals("Small correction", -0.01, controller.getSteer(), 1e-9);
+    }
+}
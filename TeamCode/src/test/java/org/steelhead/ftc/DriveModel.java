@@ -0,0 +1,226 @@
+package org.steelhead.ftc;
+
+import java.util.ArrayList;
+
+/**
+ * Differential drive physics for SimRobot. The wheel speeds come from the two drive motors, the
+ * pose is integrated from them, and the field gives the sensors something to see: white tape
+ * lines under the line color sensor and walls in front of the touch sensor. Driving the bumper
+ * into a wall stops the robot and stalls the wheels so the encoders stop counting.
+ *
+ * Distances are meters in field coordinates, the heading is counter clockwise from the field x
+ * axis like the Modern Robotics gyro's integrated Z. In the robot frame x is forward and y is to
+ * the left. step() can be called from any loop, SimRobot calls it in real time.
+ */
+
+public class DriveModel {
+    private static final double CONTACT_DISTANCE = 0.005;      //Bumper to wall for a press
+    private static final double SENSOR_SPOT = 0.01;             //Color sensor spot radius
+
+    private final SimDcMotor leftMotor;
+    private final SimDcMotor rightMotor;
+
+    private double wheelDiameter = 0.1016;     //4 inch wheels
+    private double trackWidth = 0.38;
+
+    //Sensor placement in the robot frame
+    private double colorX = 0.20;
+    private double colorY = 0;
+    private double bumperX = 0.23;
+    private double bumperY = 0;
+
+    private int floorAlpha = 3;
+    private int lineAlpha = 60;
+    private double gyroDrift = 0;              //Degrees/s
+
+    private final ArrayList<double[]> lines = new ArrayList<double[]>();
+    private final ArrayList<double[]> walls = new ArrayList<double[]>();
+
+    //Pose, only changed under the model lock
+    private double x = 0;
+    private double y = 0;
+    private double heading = 0;                 //Radians
+    private double gyroAngle = 0;               //Degrees, includes the drift
+    private double velocity = 0;
+    private double angularVelocity = 0;
+    private boolean isTouching = false;
+    private int touchCount = 0;
+    private double time = 0;
+
+    public DriveModel(SimDcMotor leftMotor, SimDcMotor rightMotor) {
+        this.leftMotor = leftMotor;
+        this.rightMotor = rightMotor;
+    }
+
+    public synchronized DriveModel setGeometry(double wheelDiameter, double trackWidth) {
+        this.wheelDiameter = wheelDiameter;
+        this.trackWidth = trackWidth;
+        return this;
+    }
+
+    //Where the line color sensor and the touch sensor bumper are in the robot frame
+    public synchronized DriveModel setSensorPositions(double colorX, double colorY,
+                                                      double bumperX, double bumperY) {
+        this.colorX = colorX;
+        this.colorY = colorY;
+        this.bumperX = bumperX;
+        this.bumperY = bumperY;
+        return this;
+    }
+
+    //Alpha the line sensor reads over the mat and over white tape
+    public synchronized DriveModel setLineAlpha(int floorAlpha, int lineAlpha) {
+        this.floorAlpha = floorAlpha;
+        this.lineAlpha = lineAlpha;
+        return this;
+    }
+
+    public synchronized DriveModel setGyroDrift(double degreesPerSecond) {
+        gyroDrift = degreesPerSecond;
+        return this;
+    }
+
+    //White tape from (x1, y1) to (x2, y2)
+    public synchronized DriveModel addLine(double x1, double y1, double x2, double y2,
+                                           double width) {
+        lines.add(new double[] {x1, y1, x2, y2, width});
+        return this;
+    }
+
+    public synchronized DriveModel addWall(double x1, double y1, double x2, double y2) {
+        walls.add(new double[] {x1, y1, x2, y2});
+        return this;
+    }
+
+    //Heading is degrees counter clockwise from the field x axis
+    public synchronized void setPose(double x, double y, double heading) {
+        this.x = x;
+        this.y = y;
+        this.heading = Math.toRadians(heading);
+        velocity = 0;
+        angularVelocity = 0;
+        isTouching = bumperDistance(this.x, this.y, this.heading) <= CONTACT_DISTANCE;
+    }
+
+    //Advance the motors and the pose by dt seconds with the battery at voltage
+    public synchronized void step(double dt, double voltage) {
+        leftMotor.update(dt, voltage);
+        rightMotor.update(dt, voltage);
+
+        //The right motor is mounted mirrored, its FORWARD drives the wheel backward
+        double left = leftMotor.getShaftVelocity() * Math.PI * wheelDiameter /
+                leftMotor.getCountsPerRev();
+        double right = -rightMotor.getShaftVelocity() * Math.PI * wheelDiameter /
+                rightMotor.getCountsPerRev();
+        velocity = (left + right) / 2;
+        angularVelocity = (right - left) / trackWidth;
+
+        double nextHeading = heading + angularVelocity * dt;
+        double midHeading = (heading + nextHeading) / 2;
+        double nextX = x + velocity * Math.cos(midHeading) * dt;
+        double nextY = y + velocity * Math.sin(midHeading) * dt;
+
+        //Pushing into a wall goes nowhere, turning or backing away is still allowed
+        double distance = bumperDistance(nextX, nextY, nextHeading);
+        boolean wasTouching = isTouching;
+        if (distance <= CONTACT_DISTANCE && distance < bumperDistance(x, y, heading) &&
+                velocity > 0) {
+            leftMotor.stall();
+            rightMotor.stall();
+            velocity = 0;
+            angularVelocity = 0;
+            isTouching = true;
+        } else {
+            x = nextX;
+            y = nextY;
+            gyroAngle += Math.toDegrees(nextHeading - heading);
+            heading = nextHeading;
+            isTouching = distance <= CONTACT_DISTANCE;
+        }
+        if (isTouching && !wasTouching) touchCount++;
+        gyroAngle += gyroDrift * dt;
+        time += dt;
+    }
+
+    public synchronized double getX() {
+        return x;
+    }
+
+    public synchronized double getY() {
+        return y;
+    }
+
+    //Degrees counter clockwise from the field x axis
+    public synchronized double getHeading() {
+        return Math.toDegrees(heading);
+    }
+
+    //What the gyro measured since the model started, degrees counter clockwise with the drift
+    public synchronized double getGyroAngle() {
+        return gyroAngle;
+    }
+
+    //Degrees/s counter clockwise
+    public synchronized double getTurnRate() {
+        return Math.toDegrees(angularVelocity) + gyroDrift;
+    }
+
+    //Meters/s forward
+    public synchronized double getVelocity() {
+        return velocity;
+    }
+
+    //Seconds of simulated time
+    public synchronized double getTime() {
+        return time;
+    }
+
+    public synchronized boolean isTouching() {
+        return isTouching;
+    }
+
+    //How many times the bumper has come up against a wall
+    public synchronized int getTouchCount() {
+        return touchCount;
+    }
+
+    //Alpha under the line sensor, blended across the tape edge like a real sensor spot
+    public synchronized int getLineAlpha() {
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+        double sensorX = x + colorX * cos - colorY * sin;
+        double sensorY = y + colorX * sin + colorY * cos;
+        double coverage = 0;
+        for (double[] line : lines) {
+            double d = segmentDistance(sensorX, sensorY, line[0], line[1], line[2], line[3]);
+            double c = (line[4] / 2 + SENSOR_SPOT - d) / (2 * SENSOR_SPOT);
+            if (c > coverage) coverage = Math.min(1, c);
+        }
+        return (int) Math.round(floorAlpha + (lineAlpha - floorAlpha) * coverage);
+    }
+
+    private double bumperDistance(double x, double y, double heading) {
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+        double px = x + bumperX * cos - bumperY * sin;
+        double py = y + bumperX * sin + bumperY * cos;
+        double distance = Double.MAX_VALUE;
+        for (double[] wall : walls) {
+            distance = Math.min(distance, segmentDistance(px, py, wall[0], wall[1], wall[2],
+                    wall[3]));
+        }
+        return distance;
+    }
+
+    private static double segmentDistance(double px, double py, double x1, double y1,
+                                          double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - x1) * dx + (py - y1) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (x1 + t * dx);
+        double ey = py - (y1 + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
@@ -0,0 +1,120 @@
+package org.steelhead.ftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PidCore driven with made up timestamps.
+ */
+
+public class PidCoreTest {
+    private static final double EPSILON = 1e-9;
+    private static final long MS = 1000000L;
+
+    @Test
+    public void usesTheMeasuredTimeBetweenUpdates() {
+        PidCore pid = new PidCore(0, 1, 0);
+        assertEquals("First update", 0, pid.update(2, 0), EPSILON);
+        assertEquals("dt of the first update", 0, pid.getDt(), EPSILON);
+
+        pid.update(2, 50 * MS);
+        assertEquals("dt", 0.05, pid.getDt(), EPSILON);
+        assertEquals("Integral after 50 ms", 0.1, pid.getIntegral(), EPSILON);
+
+        pid.update(2, 150 * MS);
+        assertEquals("dt", 0.1, pid.getDt(), EPSILON);
+        assertEquals("Integral after 150 ms", 0.3, pid.getIntegral(), EPSILON);
+
+        //A stalled loop counts as 250 ms so it can't wind the integral up
+        pid.update(2, 2150 * MS);
+        assertEquals("Longest dt", 0.25, pid.getDt(), EPSILON);
+        assertEquals("Integral after a stall", 0.8, pid.getIntegral(), EPSILON);
+    }
+
+    @Test
+    public void derivativeUsesTheMeasuredTime() {
+        PidCore pid = new PidCore(0, 0, 1);
+        pid.update(0, 0);
+        assertEquals("Derivative over 20 ms", 50, pid.update(1, 20 * MS), EPSILON);
+        assertEquals("Derivative over 40 ms", 25, pid.update(2, 60 * MS), EPSILON);
+    }
+
+    @Test
+    public void derivativeFilterIsOffUntilSet() {
+        PidCore pid = new PidCore(0, 0, 1);
+        pid.update(0, 0);
+        assertEquals("Unfiltered", 100, pid.update(1, 10 * MS), EPSILON);
+
+        pid = new PidCore(0, 0, 1);
+        pid.setDerivativeFilter(0.03);
+        pid.update(0, 0);
+        //dt / (tau + dt) = 0.25 of the step
+        assertEquals("Filtered", 25, pid.update(1, 10 * MS), EPSILON);
+    }
+
+    @Test
+    public void clearsTheIntegralWhenTheErrorChangesSign() {
+        PidCore pid = new PidCore(0, 1, 0);
+        pid.update(2, 0);
+        pid.update(2, 100 * MS);
+        assertEquals("Integral", 0.2, pid.getIntegral(), EPSILON);
+        pid.update(-1, 200 * MS);
+        assertEquals("Integral after the sign change", 0, pid.getIntegral(), EPSILON);
+    }
+
+    @Test
+    public void clearsTheIntegralAtZeroError() {
+        PidCore pid = new PidCore(0, 1, 0);
+        pid.update(2, 0);
+        pid.update(2, 100 * MS);
+        pid.update(0, 200 * MS);
+        assertEquals("Integral at zero error", 0, pid.getIntegral(), EPSILON);
+    }
+
+    @Test
+    public void clearsTheIntegralOutsideTheZone() {
+        PidCore pid = new PidCore(0, 1, 0);
+        pid.setIntegralZone(5);
+        pid.update(2, 0);
+        pid.update(2, 100 * MS);
+        assertEquals("Integral inside the zone", 0.2, pid.getIntegral(), EPSILON);
+        pid.update(6, 200 * MS);
+        assertEquals("Integral outside the zone", 0, pid.getIntegral(), EPSILON);
+    }
+
+    @Test
+    public void integralDoesNotWindUpAgainstTheLimit() {
+        PidCore pid = new PidCore(1, 1, 0);
+        pid.setOutputRange(-1, 1);
+        pid.update(2, 0);
+        for (int i = 1; i <= 20; i++) {
+            assertEquals("Held at the limit", 1, pid.update(2, i * 100 * MS), EPSILON);
+        }
+        assertEquals("Integral while saturated", 0, pid.getIntegral(), EPSILON);
+
+        //Back inside the range the integral starts from nothing
+        assertEquals("Out of saturation", 0.55, pid.update(0.5, 2100 * MS), EPSILON);
+    }
+
+    @Test
+    public void limitsTheSlewRate() {
+        PidCore pid = new PidCore(1, 0, 0);
+        pid.setSlewRate(10);
+        pid.update(0, 0);
+        assertEquals("After 10 ms", 0.1, pid.update(1, 10 * MS), EPSILON);
+        assertEquals("After 20 ms", 0.2, pid.update(1, 20 * MS), EPSILON);
+        assertEquals("After 120 ms", 1, pid.update(1, 120 * MS), EPSILON);
+        assertEquals("Down after 130 ms", 0.9, pid.update(0, 130 * MS), EPSILON);
+    }
+
+    @Test
+    public void resetForgetsTheHistory() {
+        PidCore pid = new PidCore(1, 1, 1);
+        pid.update(2, 0);
+        pid.update(3, 100 * MS);
+        pid.reset();
+        assertEquals("Only the proportional term", 4, pid.update(4, 200 * MS), EPSILON);
+        assertEquals("Integral", 0, pid.getIntegral(), EPSILON);
+    }
+}
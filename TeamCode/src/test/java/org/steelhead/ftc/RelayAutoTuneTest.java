@@ -0,0 +1,74 @@
+package org.steelhead.ftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RelayAutoTune on synthetic relay traces, a sine of known amplitude and period after a few
+ * cycles of settling in.
+ */
+
+public class RelayAutoTuneTest {
+    private static final double RELAY = 0.35;
+    private static final double HYSTERESIS = 1;
+    private static final double AMPLITUDE = 10;     //Degrees
+    private static final double PERIOD = 1.2;       //Seconds
+    private static final double SAMPLE_RATE = 100;  //Hz
+
+    //Samples of the error, the first cycle grows into the limit cycle like the robot does
+    private static int trace(double[] times, double[] errors, double amplitude, double seconds) {
+        int count = (int) (seconds * SAMPLE_RATE);
+        for (int i = 0; i < count; i++) {
+            double t = i / SAMPLE_RATE;
+            double a = t < PERIOD ? amplitude * (0.5 + 0.5 * t / PERIOD) : amplitude;
+            times[i] = t;
+            errors[i] = a * Math.sin(2 * Math.PI * t / PERIOD);
+        }
+        return count;
+    }
+
+    @Test
+    public void findsTheUltimateGainAndPeriod() {
+        double[] times = new double[2000];
+        double[] errors = new double[2000];
+        int count = trace(times, errors, AMPLITUDE, 10);
+
+        RelayAutoTune autoTune = new RelayAutoTune(RELAY, HYSTERESIS);
+        assertTrue("Steady oscillation", autoTune.analyze(times, errors, count));
+
+        double ku = 4 * RELAY / (Math.PI * Math.sqrt(AMPLITUDE * AMPLITUDE -
+                HYSTERESIS * HYSTERESIS));
+        assertEquals("Amplitude", AMPLITUDE, autoTune.amplitude, 0.01);
+        assertEquals("Tu", PERIOD, autoTune.ultimatePeriod, 0.001);
+        assertEquals("Ku", ku, autoTune.ultimateGain, ku * 0.001);
+        assertEquals("kp", 0.6 * ku, autoTune.kp, ku * 0.001);
+        assertEquals("ki", 1.2 * ku / PERIOD, autoTune.ki, ku * 0.002);
+        assertEquals("kd", 0.075 * ku * PERIOD, autoTune.kd, ku * 0.001);
+    }
+
+    @Test
+    public void needsEnoughCycles() {
+        double[] times = new double[2000];
+        double[] errors = new double[2000];
+        //Upward crossings at 1.2, 2.4, 3.6 and 4.8 s, the first two are skipped
+        int count = trace(times, errors, AMPLITUDE, 5);
+
+        RelayAutoTune autoTune = new RelayAutoTune(RELAY, HYSTERESIS);
+        assertFalse("Too short", autoTune.analyze(times, errors, count));
+        assertEquals("Cycles", 1, autoTune.cycles);
+        assertEquals("kp", 0, autoTune.kp, 0);
+    }
+
+    @Test
+    public void needsMoreThanTheHysteresis() {
+        double[] times = new double[2000];
+        double[] errors = new double[2000];
+        int count = trace(times, errors, HYSTERESIS * 0.8, 10);
+
+        RelayAutoTune autoTune = new RelayAutoTune(RELAY, HYSTERESIS);
+        assertFalse("Inside the hysteresis", autoTune.analyze(times, errors, count));
+    }
+}
@@ -0,0 +1,92 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.ColorSensor;
+import com.qualcomm.robotcore.hardware.I2cAddr;
+
+/**
+ * Simulated line color sensor for SimRobot. The tape and the mat are both grey, so red, green,
+ * blue and alpha all read the brightness DriveModel sees under the sensor.
+ */
+
+public class SimColorSensor implements ColorSensor {
+    private final DriveModel model;
+    private volatile boolean isLedOn = false;
+    private volatile I2cAddr address = I2cAddr.create8bit(0x3C);
+
+    public SimColorSensor(DriveModel model) {
+        this.model = model;
+    }
+
+    public boolean isLedOn() {
+        return isLedOn;
+    }
+
+    @Override
+    public int red() {
+        return model.getLineAlpha();
+    }
+
+    @Override
+    public int green() {
+        return model.getLineAlpha();
+    }
+
+    @Override
+    public int blue() {
+        return model.getLineAlpha();
+    }
+
+    @Override
+    public int alpha() {
+        return model.getLineAlpha();
+    }
+
+    @Override
+    public int argb() {
+        int value = Math.min(255, model.getLineAlpha());
+        return (value << 24) | (value << 16) | (value << 8) | value;
+    }
+
+    @Override
+    public void enableLed(boolean enable) {
+        isLedOn = enable;
+    }
+
+    @Override
+    public void setI2cAddress(I2cAddr newAddress) {
+        address = newAddress;
+    }
+
+    @Override
+    public I2cAddr getI2cAddress() {
+        return address;
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Simulated Color Sensor";
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim; I2C address " + address.get8Bit();
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,168 @@
+package org.steelhead.ftc;
+
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * App context for op modes run by SimOpModeRunner on the host. The only thing the robot code
+ * needs from it is the shared preferences, which are kept in memory so a test can set the
+ * thresholds and gain schedules an op mode reads.
+ */
+
+public class SimContext extends ContextWrapper {
+    private final Preferences preferences = new Preferences();
+
+    public SimContext() {
+        super(null);
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences;
+    }
+
+    private static class Preferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<String, Object>(values);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new PreferencesEditor(this);
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+    }
+
+    //Changes are kept until commit() or apply() like the real editor
+    private static class PreferencesEditor implements SharedPreferences.Editor {
+        private final Preferences preferences;
+        private final Map<String, Object> changes = new HashMap<String, Object>();
+        private boolean isClear = false;
+
+        PreferencesEditor(Preferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values == null ? null : new HashSet<String>(values));
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        //Like the real editor, a null value removes the key
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            isClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (preferences) {
+                if (isClear) preferences.values.clear();
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        preferences.values.remove(change.getKey());
+                    } else {
+                        preferences.values.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorController;
+
+/**
+ * Simulated DC motor for SimRobot. The shaft speed follows the commanded speed with a first
+ * order lag: open loop the power is a fraction of the free speed at the battery voltage, with
+ * RUN_USING_ENCODER it is a fraction of the max speed, and RUN_TO_POSITION runs a P loop on the
+ * target like the Modern Robotics controller. Direction flips the power and the encoder like the
+ * real motor does. The model calls update() from the simulation thread.
+ */
+
+public class SimDcMotor implements DcMotor {
+    public static final double NOMINAL_VOLTAGE = 12.0;
+
+    //AndyMark NeveRest 40 by default
+    private double countsPerRev = 1120;
+    private double freeSpeed = 2987;            //Counts/s at NOMINAL_VOLTAGE
+    private double driveTau = 0.08;             //Seconds
+    private double brakeTau = 0.03;
+    private double floatTau = 0.6;
+    private static final double POSITION_GAIN = 8;      //Counts/s per count of error
+    private static final int BUSY_TOLERANCE = 10;       //Counts
+
+    private final String name;
+    private final int port;
+
+    private volatile Direction direction = Direction.FORWARD;
+    private volatile ZeroPowerBehavior zeroPowerBehavior = ZeroPowerBehavior.FLOAT;
+    private volatile RunMode mode = RunMode.RUN_WITHOUT_ENCODER;
+    private volatile double power = 0;
+    private volatile int targetPosition = 0;
+    private volatile int maxSpeed = 2800;
+
+    //Shaft state, positive is the motor's FORWARD direction. Only written holding the motor lock.
+    private volatile double shaftPosition = 0;
+    private volatile double shaftVelocity = 0;
+    private double lastShaftPosition = 0;
+
+    public SimDcMotor(String name, int port) {
+        this.name = name;
+        this.port = port;
+    }
+
+    //Free speed in counts/s at NOMINAL_VOLTAGE and the time constants of the speed response
+    public SimDcMotor setCharacteristics(double countsPerRev, double freeSpeed, double driveTau,
+                                         double brakeTau, double floatTau) {
+        this.countsPerRev = countsPerRev;
+        this.freeSpeed = freeSpeed;
+        this.driveTau = driveTau;
+        this.brakeTau = brakeTau;
+        this.floatTau = floatTau;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getCountsPerRev() {
+        return countsPerRev;
+    }
+
+    //Advance the shaft by dt seconds with the battery at voltage
+    synchronized void update(double dt, double voltage) {
+        double sign = direction == Direction.FORWARD ? 1 : -1;
+        double limit = freeSpeed * voltage / NOMINAL_VOLTAGE;
+        double target;
+        double tau = driveTau;
+        switch (mode) {
+            case RUN_USING_ENCODER:
+                target = sign * power * Math.min(maxSpeed, limit);
+                break;
+            case RUN_TO_POSITION:
+                double speed = Math.abs(power) * Math.min(maxSpeed, limit);
+                double error = sign * targetPosition - shaftPosition;
+                target = Math.max(-speed, Math.min(speed, POSITION_GAIN * error));
+                break;
+            case STOP_AND_RESET_ENCODER:
+                shaftPosition = 0;
+                target = 0;
+                tau = brakeTau;
+                break;
+            default:
+                target = sign * power * limit;
+                break;
+        }
+        if (power == 0 && mode != RunMode.RUN_TO_POSITION) {
+            tau = zeroPowerBehavior == ZeroPowerBehavior.BRAKE ? brakeTau : floatTau;
+        }
+        shaftVelocity += (target - shaftVelocity) * (1 - Math.exp(-dt / tau));
+        lastShaftPosition = shaftPosition;
+        shaftPosition += shaftVelocity * dt;
+    }
+
+    //Stop the shaft dead and take back the last update, used when the robot is pushed up
+    //against a wall
+    synchronized void stall() {
+        shaftVelocity = 0;
+        shaftPosition = lastShaftPosition;
+    }
+
+    double getShaftVelocity() {
+        return shaftVelocity;
+    }
+
+    //Current draw as a fraction of stall, for the battery sag
+    double getLoad() {
+        return mode == RunMode.STOP_AND_RESET_ENCODER ? 0 : Math.abs(power);
+    }
+
+    @Override
+    public void setMaxSpeed(int encoderTicksPerSecond) {
+        maxSpeed = encoderTicksPerSecond;
+    }
+
+    @Override
+    public int getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    @Override
+    public DcMotorController getController() {
+        return null;
+    }
+
+    @Override
+    public int getPortNumber() {
+        return port;
+    }
+
+    @Override
+    public void setZeroPowerBehavior(ZeroPowerBehavior zeroPowerBehavior) {
+        this.zeroPowerBehavior = zeroPowerBehavior;
+    }
+
+    @Override
+    public ZeroPowerBehavior getZeroPowerBehavior() {
+        return zeroPowerBehavior;
+    }
+
+    @Deprecated
+    @Override
+    public void setPowerFloat() {
+        zeroPowerBehavior = ZeroPowerBehavior.FLOAT;
+        power = 0;
+    }
+
+    @Deprecated
+    @Override
+    public boolean getPowerFloat() {
+        return zeroPowerBehavior == ZeroPowerBehavior.FLOAT && power == 0;
+    }
+
+    @Override
+    public void setTargetPosition(int position) {
+        targetPosition = position;
+    }
+
+    @Override
+    public int getTargetPosition() {
+        return targetPosition;
+    }
+
+    @Override
+    public boolean isBusy() {
+        return mode == RunMode.RUN_TO_POSITION &&
+                Math.abs(getCurrentPosition() - targetPosition) > BUSY_TOLERANCE;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        double sign = direction == Direction.FORWARD ? 1 : -1;
+        return (int) Math.round(sign * shaftPosition);
+    }
+
+    @Override
+    public synchronized void setMode(RunMode mode) {
+        if (mode == RunMode.STOP_AND_RESET_ENCODER) {
+            shaftPosition = 0;
+            lastShaftPosition = 0;
+        }
+        this.mode = mode;
+    }
+
+    @Override
+    public RunMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public void setDirection(Direction direction) {
+        this.direction = direction;
+    }
+
+    @Override
+    public Direction getDirection() {
+        return direction;
+    }
+
+    @Override
+    public void setPower(double power) {
+        this.power = Math.max(-1, Math.min(1, power));
+    }
+
+    @Override
+    public double getPower() {
+        return power;
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Simulated Motor " + name;
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim; port " + port;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+        direction = Direction.FORWARD;
+        mode = RunMode.RUN_WITHOUT_ENCODER;
+        power = 0;
+    }
+
+    @Override
+    public void close() {
+        power = 0;
+    }
+}
@@ -0,0 +1,376 @@
+package org.steelhead.ftc;
+
+import android.util.Log;
+
+import com.qualcomm.robotcore.hardware.I2cAddr;
+import com.qualcomm.robotcore.hardware.I2cController;
+import com.qualcomm.robotcore.util.SerialNumber;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Simulated Core Device Interface Module i2c ports for SimRobot. Each port has the same read and
+ * write caches as the real module (mode, address, register, count, data, action flag), so the
+ * SDK's own drivers like ModernRoboticsI2cGyro and I2cDeviceImpl run on it unchanged. A register
+ * model plugged into the port plays the sensor. Every cycle() is one USB round trip: it copies
+ * the module's buffer into the read cache if a driver asked for it with
+ * readI2cCacheFromController(), runs the transfer that was written to the port into the module's
+ * buffer, and calls the port ready callback. Like the real module, a finished transfer only shows
+ * up in the read cache after the driver reads the cache back.
+ */
+
+public class SimI2cController implements I2cController {
+    private static final String TAG = "SimI2cController";
+    public static final int PORT_COUNT = 6;
+
+    static final int
+        CACHE_SIZE  = 32,
+        CACHE_MODE  = 0,
+        DEV_ADDR    = 1,
+        REG_NUMBER  = 2,
+        REG_COUNT   = 3,
+        DATA_OFFSET = 4,
+        ACTION_FLAG = 31;
+    static final byte
+        READ_MODE   = 0x00 - 128,
+        WRITE_MODE  = 0x00;
+
+    //Register file of the device on a port
+    public interface Device {
+        void readRegisters(int register, byte[] buffer, int offset, int count);
+        void writeRegisters(int register, byte[] buffer, int offset, int count);
+    }
+
+    private static class Port {
+        final byte[] readCache = new byte[CACHE_SIZE];
+        final byte[] writeCache = new byte[CACHE_SIZE];
+        final byte[] moduleBuffer = new byte[CACHE_SIZE];
+        final Lock readLock = new ReentrantLock();
+        final Lock writeLock = new ReentrantLock();
+        volatile Device device = null;
+        volatile I2cPortReadyCallback callback = null;
+        volatile I2cPortReadyBeginEndNotifications notifications = null;
+        volatile boolean isTransferPending = false;
+        volatile boolean isCacheReadPending = false;
+    }
+
+    private final Port[] ports = new Port[PORT_COUNT];
+    private final SerialNumber serialNumber = new SerialNumber("SIM-CDIM");
+    private volatile long cycleCount = 0;
+
+    public SimI2cController() {
+        for (int i = 0; i < PORT_COUNT; i++) {
+            ports[i] = new Port();
+        }
+    }
+
+    public void setDevice(int port, Device device) {
+        ports[port].device = device;
+    }
+
+    //One module round trip: fetch the requested caches, finish the pending transfers, then call
+    //the port ready callbacks
+    public void cycle() {
+        for (int i = 0; i < PORT_COUNT; i++) {
+            Port port = ports[i];
+            if (port.isCacheReadPending) {
+                port.isCacheReadPending = false;
+                try {
+                    port.readLock.lock();
+                    System.arraycopy(port.moduleBuffer, 0, port.readCache, 0, CACHE_SIZE);
+                } finally {
+                    port.readLock.unlock();
+                }
+            }
+            if (port.isTransferPending) {
+                transfer(port);
+            }
+            I2cPortReadyCallback callback = port.callback;
+            if (callback != null) {
+                try {
+                    callback.portIsReady(i);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Port " + i + " callback failed", e);
+                }
+            }
+        }
+        cycleCount++;
+    }
+
+    public long getCycleCount() {
+        return cycleCount;
+    }
+
+    private void transfer(Port port) {
+        byte[] header = new byte[DATA_OFFSET];
+        byte[] data = new byte[ACTION_FLAG - DATA_OFFSET];
+        try {
+            port.writeLock.lock();
+            System.arraycopy(port.writeCache, 0, header, 0, DATA_OFFSET);
+            System.arraycopy(port.writeCache, DATA_OFFSET, data, 0, data.length);
+            port.isTransferPending = false;
+        } finally {
+            port.writeLock.unlock();
+        }
+
+        int register = header[REG_NUMBER] & 0xFF;
+        int count = Math.min(header[REG_COUNT] & 0xFF, data.length);
+        Device device = port.device;
+        if (device != null) {
+            if (header[CACHE_MODE] == READ_MODE) {
+                device.readRegisters(register, data, 0, count);
+            } else {
+                device.writeRegisters(register, data, 0, count);
+            }
+        }
+
+        //Only the cycle thread touches the module's buffer
+        System.arraycopy(header, 0, port.moduleBuffer, 0, DATA_OFFSET);
+        System.arraycopy(data, 0, port.moduleBuffer, DATA_OFFSET, data.length);
+        port.moduleBuffer[ACTION_FLAG] = 0;
+    }
+
+    private void setHeader(int port, byte mode, I2cAddr address, int register, int count) {
+        Port p = ports[port];
+        try {
+            p.writeLock.lock();
+            p.writeCache[CACHE_MODE] = mode;
+            p.writeCache[DEV_ADDR] = (byte) address.get8Bit();
+            p.writeCache[REG_NUMBER] = (byte) register;
+            p.writeCache[REG_COUNT] = (byte) count;
+        } finally {
+            p.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public SerialNumber getSerialNumber() {
+        return serialNumber;
+    }
+
+    @Override
+    public void enableI2cReadMode(int physicalPort, I2cAddr i2cAddress, int memAddress,
+                                  int length) {
+        setHeader(physicalPort, READ_MODE, i2cAddress, memAddress, length);
+    }
+
+    @Override
+    public void enableI2cWriteMode(int physicalPort, I2cAddr i2cAddress, int memAddress,
+                                   int length) {
+        setHeader(physicalPort, WRITE_MODE, i2cAddress, memAddress, length);
+    }
+
+    @Override
+    public byte[] getCopyOfReadBuffer(int physicalPort) {
+        Port p = ports[physicalPort];
+        try {
+            p.readLock.lock();
+            int count = Math.min(p.readCache[REG_COUNT] & 0xFF, ACTION_FLAG - DATA_OFFSET);
+            byte[] buffer = new byte[count];
+            System.arraycopy(p.readCache, DATA_OFFSET, buffer, 0, count);
+            return buffer;
+        } finally {
+            p.readLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] getCopyOfWriteBuffer(int physicalPort) {
+        Port p = ports[physicalPort];
+        try {
+            p.writeLock.lock();
+            int count = Math.min(p.writeCache[REG_COUNT] & 0xFF, ACTION_FLAG - DATA_OFFSET);
+            byte[] buffer = new byte[count];
+            System.arraycopy(p.writeCache, DATA_OFFSET, buffer, 0, count);
+            return buffer;
+        } finally {
+            p.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void copyBufferIntoWriteBuffer(int physicalPort, byte[] buffer) {
+        if (buffer.length > ACTION_FLAG - DATA_OFFSET) {
+            throw new IllegalArgumentException("i2c write of " + buffer.length +
+                    " bytes doesn't fit in the cache");
+        }
+        Port p = ports[physicalPort];
+        try {
+            p.writeLock.lock();
+            System.arraycopy(buffer, 0, p.writeCache, DATA_OFFSET, buffer.length);
+        } finally {
+            p.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void setI2cPortActionFlag(int port) {
+        setActionFlag(port, (byte) -1);
+    }
+
+    @Override
+    public void clearI2cPortActionFlag(int port) {
+        setActionFlag(port, (byte) 0);
+    }
+
+    private void setActionFlag(int port, byte flag) {
+        Port p = ports[port];
+        try {
+            p.writeLock.lock();
+            p.writeCache[ACTION_FLAG] = flag;
+        } finally {
+            p.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isI2cPortActionFlagSet(int port) {
+        Port p = ports[port];
+        try {
+            p.readLock.lock();
+            return p.readCache[ACTION_FLAG] == -1;
+        } finally {
+            p.readLock.unlock();
+        }
+    }
+
+    @Override
+    public void readI2cCacheFromController(int port) {
+        ports[port].isCacheReadPending = true;
+    }
+
+    @Override
+    public void writeI2cCacheToController(int port) {
+        ports[port].isTransferPending = true;
+    }
+
+    @Override
+    public void writeI2cPortFlagOnlyToController(int port) {
+        ports[port].isTransferPending = true;
+    }
+
+    @Override
+    public boolean isI2cPortInReadMode(int port) {
+        return ports[port].readCache[CACHE_MODE] == READ_MODE;
+    }
+
+    @Override
+    public boolean isI2cPortInWriteMode(int port) {
+        return ports[port].readCache[CACHE_MODE] == WRITE_MODE;
+    }
+
+    @Override
+    public boolean isI2cPortReady(int port) {
+        return !ports[port].isTransferPending;
+    }
+
+    @Override
+    public Lock getI2cReadCacheLock(int port) {
+        return ports[port].readLock;
+    }
+
+    @Override
+    public Lock getI2cWriteCacheLock(int port) {
+        return ports[port].writeLock;
+    }
+
+    @Override
+    public byte[] getI2cReadCache(int port) {
+        return ports[port].readCache;
+    }
+
+    @Override
+    public byte[] getI2cWriteCache(int port) {
+        return ports[port].writeCache;
+    }
+
+    @Override
+    public void registerForI2cPortReadyCallback(I2cPortReadyCallback callback, int port) {
+        ports[port].callback = callback;
+    }
+
+    @Override
+    public I2cPortReadyCallback getI2cPortReadyCallback(int port) {
+        return ports[port].callback;
+    }
+
+    @Override
+    public void deregisterForPortReadyCallback(int port) {
+        ports[port].callback = null;
+    }
+
+    @Deprecated
+    @Override
+    public void registerForPortReadyBeginEndCallback(I2cPortReadyBeginEndNotifications callback,
+                                                     int port) {
+        ports[port].notifications = callback;
+    }
+
+    @Deprecated
+    @Override
+    public I2cPortReadyBeginEndNotifications getPortReadyBeginEndCallback(int port) {
+        return ports[port].notifications;
+    }
+
+    @Deprecated
+    @Override
+    public void deregisterForPortReadyBeginEndCallback(int port) {
+        ports[port].notifications = null;
+    }
+
+    @Override
+    public boolean isArmed() {
+        return true;
+    }
+
+    @Deprecated
+    @Override
+    public void readI2cCacheFromModule(int port) {
+        readI2cCacheFromController(port);
+    }
+
+    @Deprecated
+    @Override
+    public void writeI2cCacheToModule(int port) {
+        writeI2cCacheToController(port);
+    }
+
+    @Deprecated
+    @Override
+    public void writeI2cPortFlagOnlyToModule(int port) {
+        writeI2cPortFlagOnlyToController(port);
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Simulated Core Device Interface Module";
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim";
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+    }
+
+    @Override
+    public void close() {
+        for (Port port : ports) {
+            port.callback = null;
+            port.notifications = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.steelhead.ftc;
+
+import java.util.Random;
+
+/**
+ * Register model of the Modern Robotics gyro for SimI2cController, so the SDK's
+ * ModernRoboticsI2cGyro driver reads DriveModel's heading. The null command ('N') calibrates for
+ * CALIBRATION_MS of simulated time and the reset command ('R') zeroes the integrated Z, like the
+ * real sensor.
+ * Registers are little endian and both the heading register and the integrated Z count counter
+ * clockwise, the driver turns the heading into a clockwise compass heading. Raw Z is noisy
+ * like the real sensor.
+ */
+
+public class SimMRGyro implements SimI2cController.Device {
+    private static final int
+        FIRMWARE_REV    = 0,
+        MANUFACTURER    = 1,
+        SENSOR_ID       = 2,
+        COMMAND         = 3,
+        HEADING         = 4,
+        INTEGRATED_Z    = 6,
+        RAW_X           = 8,
+        RAW_Y           = 10,
+        RAW_Z           = 12,
+        Z_OFFSET        = 14,
+        Z_SCALING       = 16,
+        REGISTER_COUNT  = 18;
+    private static final byte
+        COMMAND_NORMAL  = 0,
+        COMMAND_NULL    = 'N',
+        COMMAND_RESET_Z = 'R';
+    private static final long CALIBRATION_MS = 1000;
+    private static final int RAW_Z_NOISE = 2;          //Counts either way, like the real sensor
+
+    private final DriveModel model;
+    private final byte[] registers = new byte[REGISTER_COUNT];
+    private final Random random = new Random();
+    private double zeroAngle = 0;
+    private double calibrationEnd = 0;        //Simulated seconds
+
+    public SimMRGyro(DriveModel model) {
+        this.model = model;
+        registers[FIRMWARE_REV] = 0x05;
+        registers[MANUFACTURER] = 'M';
+        registers[SENSOR_ID] = 'z';
+        putShort(Z_SCALING, 0x0100);
+    }
+
+    @Override
+    public synchronized void readRegisters(int register, byte[] buffer, int offset, int count) {
+        if (registers[COMMAND] == COMMAND_NULL && model.getTime() >= calibrationEnd) {
+            registers[COMMAND] = COMMAND_NORMAL;
+        }
+        double angle = model.getGyroAngle() - zeroAngle;
+        int integratedZ = (int) Math.round(angle);
+        int heading = ((integratedZ % 360) + 360) % 360;
+        putShort(HEADING, heading);
+        putShort(INTEGRATED_Z, integratedZ);
+        putShort(RAW_X, 0);
+        putShort(RAW_Y, 0);
+        putShort(RAW_Z, (int) Math.round(model.getTurnRate()) +
+                random.nextInt(2 * RAW_Z_NOISE + 1) - RAW_Z_NOISE);
+        putShort(Z_OFFSET, 0);
+
+        for (int i = 0; i < count; i++) {
+            int index = register + i;
+            buffer[offset + i] = index < REGISTER_COUNT ? registers[index] : 0;
+        }
+    }
+
+    @Override
+    public synchronized void writeRegisters(int register, byte[] buffer, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            if (register + i != COMMAND) continue;
+            byte command = buffer[offset + i];
+            if (command == COMMAND_NULL) {
+                registers[COMMAND] = COMMAND_NULL;
+                calibrationEnd = model.getTime() + CALIBRATION_MS / 1000.0;
+                zeroAngle = model.getGyroAngle();
+            } else if (command == COMMAND_RESET_Z) {
+                zeroAngle = model.getGyroAngle();
+                registers[COMMAND] = COMMAND_NORMAL;
+            } else {
+                registers[COMMAND] = command;
+            }
+        }
+    }
+
+    private void putShort(int register, int value) {
+        registers[register] = (byte) (value & 0xFF);
+        registers[register + 1] = (byte) ((value >> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,87 @@
+package org.steelhead.ftc;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+
+/**
+ * Runs a linear op mode against a SimRobot without the robot controller app. The op mode gets
+ * the simulated hardware map and a SimTelemetry, runOpMode() runs on its own thread, start is
+ * pressed after the init time, and stop is pressed if it is still running at the timeout.
+ *
+ * The op mode sees the same hardware names as on the robot, so autonomous routines like
+ * AutoBlue3 run unchanged. The times are ControlClock time, so with SimRobot.setRate() above 1
+ * the op mode runs faster than real time.
+ */
+
+public class SimOpModeRunner {
+    private static final String TAG = "SimOpModeRunner";
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private final SimRobot sim;
+    private final LinearOpMode opMode;
+    private final SimTelemetry telemetry;
+    private volatile Throwable failure = null;
+    private volatile long runTimeMs = 0;
+
+    public SimOpModeRunner(SimRobot sim, LinearOpMode opMode, Context appContext) {
+        this.sim = sim;
+        this.opMode = opMode;
+        telemetry = new SimTelemetry(opMode, TAG);
+        opMode.hardwareMap = sim.createHardwareMap(appContext);
+        opMode.telemetry = telemetry;
+    }
+
+    public SimTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /*
+     * Init the op mode, press start after initMs, and wait up to timeoutMs after start for
+     * runOpMode() to return. Returns true if it returned on its own. An exception thrown by the
+     * op mode is rethrown here.
+     */
+    public boolean run(long initMs, long timeoutMs) throws InterruptedException {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    opMode.runOpMode();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+        }, "sim-opmode");
+
+        sim.start();
+        boolean isFinished;
+        try {
+            thread.start();
+            thread.join(ControlClock.toWallMillis(initMs));
+            long startTime = ControlClock.nanoTime();
+            opMode.start();
+            thread.join(ControlClock.toWallMillis(timeoutMs));
+            isFinished = !thread.isAlive();
+            if (!isFinished) {
+                Log.w(TAG, "Op mode still running after " + timeoutMs + " ms, stopping it");
+                thread.interrupt();
+                thread.join(STOP_TIMEOUT_MS);
+            }
+            runTimeMs = (ControlClock.nanoTime() - startTime) / 1000000L;
+        } finally {
+            sim.stop();
+        }
+
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        return isFinished;
+    }
+
+    //Time from start to the end of the op mode
+    public long getRunTimeMs() {
+        return runTimeMs;
+    }
+}
@@ -0,0 +1,172 @@
+package org.steelhead.ftc;
+
+import android.content.Context;
+
+import com.qualcomm.hardware.modernrobotics.ModernRoboticsI2cGyro;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.hardware.I2cDeviceImpl;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulated robot for running HardwareSteelheadMainBot code without a phone or modules. It owns
+ * a simulated device for every name HardwareSteelheadMainBot.init() looks up, with DriveModel
+ * underneath the drive motors, the line sensor, the touch sensor and the gyro. The gyro and the
+ * beacon color sensor are register models behind a simulated interface module, so the stock
+ * ModernRoboticsI2cGyro driver and Adafruit_ColorSensor run on them unchanged.
+ *
+ * The simulation has its own clock. start() runs it alongside the control code's ControlClock,
+ * rate times as fast as the wall clock, so with a rate above 1 a whole autonomous run takes a
+ * fraction of the time while every control loop still sees its usual period. advance() runs it
+ * as fast as the host can for open loop tests that don't run the control loops.
+ *
+ * The model starts out as an empty floor, VelocityVortexField adds the walls and the beacon tape
+ * of the game field. AutoBlue3Test shows running an op mode on it with SimOpModeRunner.
+ */
+
+public class SimRobot {
+    private static final double PHYSICS_PERIOD = 0.002;        //Seconds
+    private static final double I2C_CYCLE_PERIOD = 0.010;      //One module round trip
+    private static final int GYRO_PORT = 0;
+    private static final int BEACON_PORT = 1;
+
+    public final SimDcMotor leftMotor             = new SimDcMotor("leftMotor1", 1);
+    public final SimDcMotor rightMotor            = new SimDcMotor("rightMotor1", 2);
+    public final SimDcMotor lifterMotor           = new SimDcMotor("lifter", 1);
+    public final SimDcMotor sweeperMotor          = new SimDcMotor("sweeper", 2);
+    public final SimDcMotor leftShooterMotor      = new SimDcMotor("leftShooter", 1);
+    public final SimDcMotor rightShooterMotor     = new SimDcMotor("rightShooter", 2);
+    public final SimServo pusherRight             = new SimServo("pusherRight", 1);
+    public final SimServo pusherLeft              = new SimServo("pusherLeft", 2);
+    public final SimServo shooterServo            = new SimServo("shooter", 3);
+    public final SimServo pusherRight2            = new SimServo("pusherRight2", 4);
+    public final SimServo pusherLeft2             = new SimServo("pusherLeft2", 5);
+    public final SimServo trap                    = new SimServo("trap", 6);
+    public final SimVoltageSensor batVolt         = new SimVoltageSensor();
+    public final SimI2cController i2cController   = new SimI2cController();
+    public final SimTCS34725 beaconColor          = new SimTCS34725();
+    public final DriveModel model;
+    public final SimColorSensor color;
+    public final SimTouchSensor touchSensor;
+    public final SimMRGyro gyro;
+
+    private final SimDcMotor[] motors = {leftMotor, rightMotor, lifterMotor, sweeperMotor,
+            leftShooterMotor, rightShooterMotor};
+
+    //Simulation clock, only advanced under the lock
+    private final Object clockLock = new Object();
+    private double time = 0;
+    private double nextPhysicsTime = 0;
+    private double nextCycleTime = 0;
+
+    private ScheduledThreadPoolExecutor executor = null;
+    private ScheduledFuture<?> clockFuture = null;
+    private long lastClockTime = 0;
+    private double rate = 1;
+
+    public SimRobot() {
+        model = new DriveModel(leftMotor, rightMotor);
+        color = new SimColorSensor(model);
+        touchSensor = new SimTouchSensor(model);
+        gyro = new SimMRGyro(model);
+        i2cController.setDevice(GYRO_PORT, gyro);
+        i2cController.setDevice(BEACON_PORT, beaconColor);
+    }
+
+    //Hardware map with the simulated devices under the configuration names the robot uses
+    public HardwareMap createHardwareMap(Context appContext) {
+        HardwareMap hardwareMap = new HardwareMap(appContext);
+        for (SimDcMotor motor : motors) {
+            hardwareMap.dcMotor.put(motor.getName(), motor);
+        }
+        hardwareMap.servo.put("pusherRight", pusherRight);
+        hardwareMap.servo.put("pusherLeft", pusherLeft);
+        hardwareMap.servo.put("shooter", shooterServo);
+        hardwareMap.servo.put("pusherRight2", pusherRight2);
+        hardwareMap.servo.put("pusherLeft2", pusherLeft2);
+        hardwareMap.servo.put("trap", trap);
+        hardwareMap.voltageSensor.put("Right Aux Motor Controller", batVolt);
+        hardwareMap.touchSensor.put("touch", touchSensor);
+        hardwareMap.colorSensor.put("color", color);
+        hardwareMap.gyroSensor.put("gyro", new ModernRoboticsI2cGyro(i2cController, GYRO_PORT));
+        hardwareMap.i2cDevice.put("BColor", new I2cDeviceImpl(i2cController, BEACON_PORT));
+        return hardwareMap;
+    }
+
+    //How many times faster than the wall clock start() runs the simulation and the ControlClock
+    public synchronized SimRobot setRate(double rate) {
+        if (rate <= 0) throw new IllegalArgumentException("Simulation rate must be positive");
+        this.rate = rate;
+        return this;
+    }
+
+    //Run the simulation on its own thread, following the ControlClock at the rate
+    public synchronized void start() {
+        if (executor != null) return;
+        ControlClock.setRate(rate);
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sim-clock");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        lastClockTime = ControlClock.nanoTime();
+        clockFuture = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long now = ControlClock.nanoTime();
+                advance((now - lastClockTime) / 1e9);
+                lastClockTime = now;
+            }
+        }, 0, ControlClock.toWallNanos((long) (PHYSICS_PERIOD * 1e9)), TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        clockFuture.cancel(false);
+        executor.shutdownNow();
+        executor = null;
+        ControlClock.setRate(1);
+    }
+
+    /*
+     * Run the simulation forward by seconds of simulated time as fast as possible: the physics
+     * in PHYSICS_PERIOD steps and an i2c cycle, with its port callbacks, every I2C_CYCLE_PERIOD.
+     */
+    public void advance(double seconds) {
+        synchronized (clockLock) {
+            double end = time + seconds;
+            while (nextPhysicsTime <= end || nextCycleTime <= end) {
+                if (nextPhysicsTime <= nextCycleTime) {
+                    double load = 0;
+                    for (SimDcMotor motor : motors) {
+                        load += motor.getLoad();
+                    }
+                    batVolt.setLoad(load);
+                    double voltage = batVolt.getVoltage();
+                    model.step(PHYSICS_PERIOD, voltage);
+                    for (int i = 2; i < motors.length; i++) {
+                        motors[i].update(PHYSICS_PERIOD, voltage);
+                    }
+                    nextPhysicsTime += PHYSICS_PERIOD;
+                } else {
+                    i2cController.cycle();
+                    nextCycleTime += I2C_CYCLE_PERIOD;
+                }
+            }
+            time = end;
+        }
+    }
+
+    //Seconds of simulated time
+    public double getTime() {
+        synchronized (clockLock) {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.Servo;
+import com.qualcomm.robotcore.hardware.ServoController;
+
+/**
+ * Simulated servo for SimRobot. It only remembers the commanded position, scaled and reversed
+ * the same way the SDK servo does it.
+ */
+
+public class SimServo implements Servo {
+    private final String name;
+    private final int port;
+
+    private volatile Direction direction = Direction.FORWARD;
+    private volatile double position = 0;
+    private double minPosition = MIN_POSITION;
+    private double maxPosition = MAX_POSITION;
+
+    public SimServo(String name, int port) {
+        this.name = name;
+        this.port = port;
+    }
+
+    @Override
+    public ServoController getController() {
+        return null;
+    }
+
+    @Override
+    public int getPortNumber() {
+        return port;
+    }
+
+    @Override
+    public void setDirection(Direction direction) {
+        this.direction = direction;
+    }
+
+    @Override
+    public Direction getDirection() {
+        return direction;
+    }
+
+    @Override
+    public synchronized void setPosition(double position) {
+        position = Math.max(MIN_POSITION, Math.min(MAX_POSITION, position));
+        if (direction == Direction.REVERSE) position = MAX_POSITION - position;
+        this.position = minPosition + position * (maxPosition - minPosition);
+    }
+
+    @Override
+    public synchronized double getPosition() {
+        double scaled = (position - minPosition) / (maxPosition - minPosition);
+        if (direction == Direction.REVERSE) scaled = MAX_POSITION - scaled;
+        return scaled;
+    }
+
+    //Position actually sent to the servo after the range scaling, 0 to 1
+    public double getOutputPosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized void scaleRange(double min, double max) {
+        minPosition = Math.max(MIN_POSITION, Math.min(MAX_POSITION, min));
+        maxPosition = Math.max(MIN_POSITION, Math.min(MAX_POSITION, max));
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Simulated Servo " + name;
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim; port " + port;
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+        direction = Direction.FORWARD;
+        scaleRange(MIN_POSITION, MAX_POSITION);
+    }
+
+    @Override
+    public void close() {
+    }
+}
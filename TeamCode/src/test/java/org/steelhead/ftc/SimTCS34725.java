@@ -0,0 +1,69 @@
+package org.steelhead.ftc;
+
+/**
+ * Register model of the TCS34725 on the Adafruit color sensor board for SimI2cController, so
+ * Adafruit_ColorSensor reads whatever color the test puts in front of the beacon sensor with
+ * setColor(). Register numbers arrive with the command bit set. The data is only valid while
+ * the sensor is powered on with the ADC enabled.
+ */
+
+public class SimTCS34725 implements SimI2cController.Device {
+    private static final int
+        COMMAND_BIT     = 0x80,
+        ENABLE          = 0x00,
+        ENABLE_AEN      = 0x02,
+        ENABLE_PON      = 0x01,
+        ATIME           = 0x01,
+        ID              = 0x12,
+        STATUS          = 0x13,
+        STATUS_AVALID   = 0x01,
+        CDATA           = 0x14,
+        REGISTER_COUNT  = 0x20;
+    private static final int DEVICE_ID = 0x44;
+
+    private final byte[] registers = new byte[REGISTER_COUNT];
+
+    public SimTCS34725() {
+        registers[ATIME] = (byte) 0xFF;
+        registers[ID] = DEVICE_ID;
+    }
+
+    //Raw counts the ADC reports
+    public synchronized void setColor(int clear, int red, int green, int blue) {
+        putWord(CDATA, clear);
+        putWord(CDATA + 2, red);
+        putWord(CDATA + 4, green);
+        putWord(CDATA + 6, blue);
+    }
+
+    @Override
+    public synchronized void readRegisters(int register, byte[] buffer, int offset, int count) {
+        int enable = registers[ENABLE] & 0xFF;
+        boolean isValid = (enable & (ENABLE_PON | ENABLE_AEN)) == (ENABLE_PON | ENABLE_AEN);
+        registers[STATUS] = (byte) (isValid ? STATUS_AVALID : 0);
+
+        register &= ~COMMAND_BIT;
+        for (int i = 0; i < count; i++) {
+            int index = register + i;
+            buffer[offset + i] = index < REGISTER_COUNT ? registers[index] : 0;
+        }
+    }
+
+    @Override
+    public synchronized void writeRegisters(int register, byte[] buffer, int offset, int count) {
+        register &= ~COMMAND_BIT;
+        for (int i = 0; i < count; i++) {
+            int index = register + i;
+            //ID, STATUS and the data are read only
+            if (index < ID) {
+                registers[index] = buffer[offset + i];
+            }
+        }
+    }
+
+    private void putWord(int register, int value) {
+        value = Math.max(0, Math.min(0xFFFF, value));
+        registers[register] = (byte) (value & 0xFF);
+        registers[register + 1] = (byte) ((value >> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,47 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.robocol.TelemetryMessage;
+
+import org.firstinspires.ftc.robotcore.internal.TelemetryImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Telemetry for op modes run by SimOpModeRunner. The lines are composed the same way as on the
+ * robot, but instead of going to the driver station they are kept for getLines() and logged.
+ */
+
+public class SimTelemetry extends TelemetryImpl {
+    private final String tag;
+    private volatile List<String> lastLines = new ArrayList<String>();
+    private volatile long updateCount = 0;
+
+    public SimTelemetry(OpMode opMode, String tag) {
+        super(opMode);
+        this.tag = tag;
+    }
+
+    //The message is thrown away, so the op mode manager is never asked to send it
+    @Override
+    protected void saveToTransmitter(boolean recompose, TelemetryMessage transmitter) {
+        super.saveToTransmitter(recompose, new TelemetryMessage());
+        List<String> lines = new ArrayList<String>(composedLines);
+        lastLines = lines;
+        updateCount++;
+        for (String line : lines) {
+            //Telemetry has its own Log interface
+            android.util.Log.d(tag, line);
+        }
+    }
+
+    //Lines of the last update
+    public List<String> getLines() {
+        return lastLines;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+}
@@ -0,0 +1,59 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.TouchSensor;
+
+/**
+ * Simulated touch sensor for SimRobot. It is pressed while DriveModel has the bumper against a
+ * wall, or while a test holds it down with setPressed().
+ */
+
+public class SimTouchSensor implements TouchSensor {
+    private final DriveModel model;
+    private volatile boolean isHeld = false;
+
+    public SimTouchSensor(DriveModel model) {
+        this.model = model;
+    }
+
+    public void setPressed(boolean isPressed) {
+        isHeld = isPressed;
+    }
+
+    @Override
+    public double getValue() {
+        return isPressed() ? 1 : 0;
+    }
+
+    @Override
+    public boolean isPressed() {
+        return isHeld || model.isTouching();
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Simulated Touch Sensor";
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim";
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,57 @@
+package org.steelhead.ftc;
+
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+/**
+ * Simulated battery voltage for SimRobot. The voltage sags with the total motor load through
+ * the battery's internal resistance, SimRobot sets the load every physics step.
+ */
+
+public class SimVoltageSensor implements VoltageSensor {
+    private volatile double openCircuitVoltage = 13.2;
+    private volatile double sagPerLoad = 0.5;          //Volts per motor at full power
+    private volatile double load = 0;
+
+    public void setBattery(double openCircuitVoltage, double sagPerLoad) {
+        this.openCircuitVoltage = openCircuitVoltage;
+        this.sagPerLoad = sagPerLoad;
+    }
+
+    //Sum of the motor loads, each 0 to 1
+    void setLoad(double load) {
+        this.load = load;
+    }
+
+    @Override
+    public double getVoltage() {
+        return openCircuitVoltage - sagPerLoad * load;
+    }
+
+    @Override
+    public Manufacturer getManufacturer() {
+        return Manufacturer.Other;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return "Simulated Battery";
+    }
+
+    @Override
+    public String getConnectionInfo() {
+        return "sim";
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
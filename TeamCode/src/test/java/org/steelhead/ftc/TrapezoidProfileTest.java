@@ -0,0 +1,82 @@
+package org.steelhead.ftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TrapezoidProfile for turns in degrees and seconds.
+ */
+
+public class TrapezoidProfileTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void acceleratesCruisesAndSlowsDown() {
+        //0.5 s up to 90 degrees/s covers 22.5 degrees each way, the other 45 take 0.5 s
+        TrapezoidProfile profile = new TrapezoidProfile(0, 90, 90, 180);
+        assertEquals("Total time", 1.5, profile.getTotalTime(), EPSILON);
+
+        assertEquals("Position at the start", 0, profile.position(0), EPSILON);
+        assertEquals("Velocity at the start", 0, profile.velocity(0), EPSILON);
+
+        assertEquals("Position while speeding up", 5.625, profile.position(0.25), EPSILON);
+        assertEquals("Velocity while speeding up", 45, profile.velocity(0.25), EPSILON);
+        assertEquals("Acceleration while speeding up", 180, profile.acceleration(0.25), EPSILON);
+
+        assertEquals("Position while cruising", 45, profile.position(0.75), EPSILON);
+        assertEquals("Velocity while cruising", 90, profile.velocity(0.75), EPSILON);
+        assertEquals("Acceleration while cruising", 0, profile.acceleration(0.75), EPSILON);
+
+        assertEquals("Position while slowing down", 84.375, profile.position(1.25), EPSILON);
+        assertEquals("Velocity while slowing down", 45, profile.velocity(1.25), EPSILON);
+        assertEquals("Acceleration while slowing down", -180, profile.acceleration(1.25),
+                EPSILON);
+
+        assertFalse("Finished early", profile.isFinished(1.49));
+        assertTrue("Not finished", profile.isFinished(1.5));
+        assertEquals("Position at the end", 90, profile.position(2), EPSILON);
+        assertEquals("Velocity at the end", 0, profile.velocity(2), EPSILON);
+        assertEquals("Acceleration at the end", 0, profile.acceleration(2), EPSILON);
+    }
+
+    @Test
+    public void positionFollowsTheVelocity() {
+        TrapezoidProfile profile = new TrapezoidProfile(0, 90, 90, 180);
+        double dt = 0.0001;
+        double position = 0;
+        for (double t = 0; t < profile.getTotalTime(); t += dt) {
+            //Midpoint rule, exact for the piecewise linear velocity away from the corners
+            position += profile.velocity(t + dt / 2) * dt;
+            assertEquals("Position at " + t, profile.position(t + dt), position, 1e-3);
+        }
+    }
+
+    @Test
+    public void shortMovesAreTriangular() {
+        //Can't reach 90 degrees/s in 10 degrees, 5 degrees each way at 180 degrees/s^2
+        TrapezoidProfile profile = new TrapezoidProfile(0, 10, 90, 180);
+        double accelTime = Math.sqrt(5 / 90.0);
+        assertEquals("Total time", 2 * accelTime, profile.getTotalTime(), EPSILON);
+        assertEquals("Peak velocity", 180 * accelTime, profile.velocity(accelTime), 1e-6);
+        assertEquals("Halfway", 5, profile.position(accelTime), 1e-6);
+        assertEquals("Position at the end", 10, profile.position(1), EPSILON);
+    }
+
+    @Test
+    public void turnsTheOtherWay() {
+        TrapezoidProfile profile = new TrapezoidProfile(100, 10, 90, 180);
+        assertEquals("Position while speeding up", 94.375, profile.position(0.25), EPSILON);
+        assertEquals("Velocity while cruising", -90, profile.velocity(0.75), EPSILON);
+        assertEquals("Acceleration while speeding up", -180, profile.acceleration(0.25), EPSILON);
+        assertEquals("Acceleration while slowing down", 180, profile.acceleration(1.25), EPSILON);
+        assertEquals("Position at the end", 10, profile.position(2), EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAPositiveVelocity() {
+        new TrapezoidProfile(0, 90, 0, 180);
+    }
+}
@@ -0,0 +1,59 @@
+package org.steelhead.ftc;
+
+/**
+ * The parts of the Velocity Vortex field the autonomous routines use, for SimRobot. The field is
+ * 12 ft square with the perimeter walls all around. An alliance's two beacons are 4 ft apart on
+ * the wall to the right of its starting wall (blue) or to the left (red), each with a strip of
+ * white tape running out from the beacon.
+ *
+ * On the real field the tape bends toward the center vortex, here it runs straight out from the
+ * wall, short enough that a routine starting with the second beacon like AutoBlue3 passes
+ * behind the first tape on the way out. The beacon sensor always sees the alliance's own color.
+ *
+ * Field x runs along the beacon wall away from the starting wall, the blue beacon wall is y = 0
+ * and the red one is y = SIZE, so the routines for the two alliances are mirror images.
+ */
+
+public class VelocityVortexField {
+    public static final double SIZE = 3.66;                 //12 ft
+    public static final double TAPE_WIDTH = 0.05;           //2 inch tape
+    public static final double[] BEACON_X = {1.52, 2.74};   //5 ft and 9 ft from the start wall
+    public static final double TAPE_LENGTH = 1.0;
+
+    //Robot start, back against the starting wall and facing along the beacon wall
+    public static final double START_X = 0.25;
+    public static final double START_Y = 1.55;              //From the beacon wall
+
+    public enum Alliance {
+        RED,
+        BLUE
+    }
+
+    private VelocityVortexField() {
+    }
+
+    //Add the walls and the alliance's beacon tape to the model and put the robot at the start
+    public static void setUp(SimRobot sim, Alliance alliance) {
+        DriveModel model = sim.model;
+        model.addWall(0, 0, SIZE, 0)
+                .addWall(SIZE, 0, SIZE, SIZE)
+                .addWall(SIZE, SIZE, 0, SIZE)
+                .addWall(0, SIZE, 0, 0);
+
+        for (double x : BEACON_X) {
+            if (alliance == Alliance.BLUE) {
+                model.addLine(x, 0, x, TAPE_LENGTH, TAPE_WIDTH);
+            } else {
+                model.addLine(x, SIZE, x, SIZE - TAPE_LENGTH, TAPE_WIDTH);
+            }
+        }
+
+        if (alliance == Alliance.BLUE) {
+            model.setPose(START_X, START_Y, 0);
+            sim.beaconColor.setColor(300, 40, 50, 200);
+        } else {
+            model.setPose(START_X, SIZE - START_Y, 0);
+            sim.beaconColor.setColor(300, 200, 50, 40);
+        }
+    }
+}